@@ -0,0 +1,24 @@
+package biojavaExtensions.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Same as JMH's own Main, except that the GC profiler (allocation rate per operation)
+ * is on unless other profilers are requested. All the usual JMH options apply, e.g.
+ *     java -jar benchmarks.jar Trees -p nTrees=100000 -p nTaxa=200
+ * 
+ * @author woodhams
+ *
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+		if (commandLine.getProfilers().isEmpty()) options.addProfiler(GCProfiler.class);
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,65 @@
+package biojavaExtensions.benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.biojavax.bio.phylo.io.nexus.DistancesBlock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import biojavaExtensions.DistancesWriter;
+import biojavaExtensions.NexusUtils;
+
+/**
+ * NexusUtils.makeDistancesBlock (and writing its result) against DistancesWriter.
+ * 
+ * @author woodhams
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DistancesBenchmarks {
+	
+	@Param({"100", "1000"})
+	public int nTaxa;
+	
+	private String[] taxa;
+	private double[][] distances;
+	private Writer nullWriter;
+	
+	@Setup
+	public void setup() {
+		taxa = SyntheticNexus.taxa(nTaxa);
+		distances = SyntheticNexus.randomDistances(nTaxa, 42);
+		nullWriter = new SyntheticNexus.NullWriter();
+	}
+	
+	@Benchmark
+	public DistancesBlock makeDistancesBlock() {
+		return NexusUtils.makeDistancesBlock(taxa, distances);
+	}
+	
+	@Benchmark
+	public void makeAndWriteDistancesBlock() throws IOException {
+		NexusUtils.makeDistancesBlock(taxa, distances).writeObject(nullWriter);
+	}
+	
+	@Benchmark
+	public void distancesWriter() throws IOException {
+		new DistancesWriter().writeBlock(nullWriter, taxa, distances);
+	}
+}
@@ -0,0 +1,102 @@
+package biojavaExtensions.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.biojava.bio.seq.io.ParseException;
+import org.biojavax.bio.phylo.io.nexus.NexusBlock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import biojavaExtensions.GenericBlockBuilder;
+import biojavaExtensions.GenericBlockParser;
+import biojavaExtensions.GenericNexusStuff;
+
+/**
+ * GenericBlockParser.parseToken, GenericBlockBuilder.storeLastObject (reached through the 
+ * builder's token methods) and GenericNexusStuff.reformat.
+ * 
+ * @author woodhams
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class GenericBlockBenchmarks {
+	
+	@Param({"100", "10000"})
+	public int nFields;
+	
+	@Param({"0.0", "0.2"})
+	public double commentDensity;
+	
+	private String[] tokens;
+	private String[] untidyValues;
+	
+	@Setup
+	public void setup() {
+		tokens = SyntheticNexus.genericBlockTokens(nFields, commentDensity, 42);
+		untidyValues = SyntheticNexus.untidyValues(nFields, 42);
+	}
+	
+	/*
+	 * Drives the parser the way Biojava's tokenizer does.
+	 */
+	@Benchmark
+	public NexusBlock parseTokens() throws ParseException {
+		GenericBlockParser parser = new GenericBlockParser();
+		parser.startBlock("BENCHMARK");
+		for (String token : tokens) {
+			if (token.equals(SyntheticNexus.END_TOKEN_GROUP)) {
+				parser.endTokenGroup();
+			} else if (token.startsWith(SyntheticNexus.COMMENT_PREFIX)) {
+				parser.beginComment();
+				parser.commentText(token.substring(1));
+				parser.endComment();
+			} else {
+				parser.parseToken(token);
+			}
+		}
+		parser.endBlock();
+		return ((GenericBlockBuilder)parser.getBlockListener()).getNexusBlock();
+	}
+	
+	/*
+	 * Each new whitespace run or key makes the builder store the previous field.
+	 */
+	@Benchmark
+	public NexusBlock storeFields() throws ParseException {
+		GenericBlockBuilder builder = new GenericBlockBuilder();
+		builder.startBlock("BENCHMARK");
+		for (int i=0; i<nFields; i++) {
+			builder.addWhiteSpace("\n\t");
+			builder.addKey("key"+i);
+			builder.addSeparator("=");
+			builder.addValue(untidyValues[i]);
+			builder.endTokenGroup();
+		}
+		builder.endBlock();
+		return builder.getNexusBlock();
+	}
+	
+	@Benchmark
+	public void reformat(Blackhole blackhole) {
+		for (String value : untidyValues) {
+			GenericNexusStuff field = new GenericNexusStuff("key", "\n", value);
+			field.reformat();
+			blackhole.consume(field.getValue());
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package biojavaExtensions.benchmarks;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic inputs of configurable size for the benchmarks.
+ * All generators are seeded, so every run sees the same data.
+ * 
+ * @author woodhams
+ *
+ */
+public class SyntheticNexus {
+	
+	/*
+	 * Pseudo-tokens in a token stream, standing for what Biojava's tokenizer passes
+	 * to a block parser other than via parseToken.
+	 */
+	public static final String END_TOKEN_GROUP = ";";
+	public static final String COMMENT_PREFIX = "[";
+	
+	private SyntheticNexus() {}
+	
+	public static String taxonLabel(int i) {
+		return "taxon_"+i;
+	}
+	
+	public static String[] taxa(int nTaxa) {
+		String[] taxa = new String[nTaxa];
+		for (int i=0; i<nTaxa; i++) taxa[i] = taxonLabel(i);
+		return taxa;
+	}
+	
+	/**
+	 * A random binary tree on nTaxa leaves, with branch lengths, as a Newick string with terminating ';'.
+	 */
+	public static String randomTree(int nTaxa, Random random) {
+		List<String> subtrees = new ArrayList<String>();
+		for (int i=0; i<nTaxa; i++) subtrees.add(taxonLabel(i)+":"+branchLength(random));
+		while (subtrees.size() > 1) {
+			String a = subtrees.remove(random.nextInt(subtrees.size()));
+			String b = subtrees.remove(random.nextInt(subtrees.size()));
+			String joined = "("+a+","+b+")";
+			subtrees.add(subtrees.isEmpty() ? joined : joined+":"+branchLength(random));
+		}
+		return subtrees.get(0)+";";
+	}
+	
+	private static String branchLength(Random random) {
+		return String.format("%.5f", random.nextDouble());
+	}
+	
+	public static String[] randomTrees(int nTrees, int nTaxa, long seed) {
+		Random random = new Random(seed);
+		String[] trees = new String[nTrees];
+		for (int i=0; i<nTrees; i++) trees[i] = randomTree(nTaxa, random);
+		return trees;
+	}
+	
+	/**
+	 * One comment per tree with probability commentDensity, else null.
+	 */
+	public static String[] treeComments(int nTrees, double commentDensity, long seed) {
+		Random random = new Random(seed);
+		String[] comments = new String[nTrees];
+		for (int i=0; i<nTrees; i++) {
+			comments[i] = (random.nextDouble() < commentDensity) ? "lnL="+(-1000*random.nextDouble()) : null;
+		}
+		return comments;
+	}
+	
+	public static double[][] randomDistances(int nTaxa, long seed) {
+		Random random = new Random(seed);
+		double[][] distances = new double[nTaxa][nTaxa];
+		for (int i=0; i<nTaxa; i++) {
+			for (int j=0; j<i; j++) {
+				distances[i][j] = distances[j][i] = random.nextDouble();
+			}
+		}
+		return distances;
+	}
+	
+	/**
+	 * Tokens of a GenericBlock with nFields fields, as Biojava's tokenizer would deliver them
+	 * to GenericBlockParser. Fields alternate between "key=value" and newline-separated 
+	 * multi-line values. A field is preceded by a comment with probability commentDensity.
+	 * Comments and ';' appear as pseudo-tokens (END_TOKEN_GROUP, COMMENT_PREFIX): see
+	 * GenericBlockBenchmarks.parseTokens() for how they are fed to the parser.
+	 */
+	public static String[] genericBlockTokens(int nFields, double commentDensity, long seed) {
+		Random random = new Random(seed);
+		List<String> tokens = new ArrayList<String>();
+		for (int i=0; i<nFields; i++) {
+			tokens.add("\n");
+			tokens.add("\t");
+			if (random.nextDouble() < commentDensity) {
+				tokens.add(COMMENT_PREFIX+"comment on field "+i);
+				tokens.add("\t");
+			}
+			if (i%2 == 0) {
+				tokens.add("key"+i+"="+random.nextInt(1000));
+			} else {
+				tokens.add("key"+i);
+				tokens.add("\n");
+				for (int line=0; line<3; line++) {
+					tokens.add("\t\t");
+					for (int word=0; word<4; word++) {
+						if (word > 0) tokens.add(" ");
+						tokens.add(Double.toString(random.nextDouble()));
+					}
+					tokens.add("\n");
+				}
+				tokens.add("\t");
+			}
+			tokens.add(END_TOKEN_GROUP);
+		}
+		tokens.add("\n");
+		return tokens.toArray(new String[tokens.size()]);
+	}
+	
+	/**
+	 * Field values in the style of the multi-line values from genericBlockTokens, 
+	 * with untidy whitespace for GenericNexusStuff.reformat to clean up.
+	 */
+	public static String[] untidyValues(int nFields, long seed) {
+		Random random = new Random(seed);
+		String[] values = new String[nFields];
+		for (int i=0; i<nFields; i++) {
+			StringBuilder value = new StringBuilder("\n");
+			for (int line=0; line<3; line++) {
+				value.append("\t  ");
+				for (int word=0; word<4; word++) value.append(random.nextInt(100000)).append("   ");
+				value.append('\n');
+			}
+			value.append('\t');
+			values[i] = value.toString();
+		}
+		return values;
+	}
+	
+	/**
+	 * Discards everything written to it.
+	 */
+	public static class NullWriter extends Writer {
+		@Override public void write(char[] cbuf, int off, int len) {}
+		@Override public void write(String str, int off, int len) {}
+		@Override public void write(int c) {}
+		@Override public void flush() {}
+		@Override public void close() {}
+	}
+}
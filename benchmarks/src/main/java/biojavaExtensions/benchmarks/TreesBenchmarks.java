@@ -0,0 +1,77 @@
+package biojavaExtensions.benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.biojavax.bio.phylo.io.nexus.TreesBlock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import biojavaExtensions.NexusUtils;
+import biojavaExtensions.StreamingTreesWriter;
+
+/**
+ * Building and writing TREES blocks: NexusUtils.makeTreesBlock, ExtTreesBlock.writeBlockContents
+ * (through writeObject) and StreamingTreesWriter for comparison.
+ * 
+ * @author woodhams
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TreesBenchmarks {
+	
+	@Param({"100", "10000"})
+	public int nTrees;
+	
+	@Param({"20", "200"})
+	public int nTaxa;
+	
+	@Param({"0.0", "1.0"})
+	public double commentDensity;
+	
+	private String[] trees;
+	private String[] comments;
+	private TreesBlock block;
+	private Writer nullWriter;
+	
+	@Setup
+	public void setup() {
+		trees = SyntheticNexus.randomTrees(nTrees, nTaxa, 42);
+		comments = SyntheticNexus.treeComments(nTrees, commentDensity, 42);
+		block = NexusUtils.makeTreesBlock(trees, comments, "benchmark");
+		nullWriter = new SyntheticNexus.NullWriter();
+	}
+	
+	@Benchmark
+	public TreesBlock makeTreesBlock() {
+		return NexusUtils.makeTreesBlock(trees, comments, "benchmark");
+	}
+	
+	@Benchmark
+	public void writeBlockContents() throws IOException {
+		block.writeObject(nullWriter);
+	}
+	
+	@Benchmark
+	public void streamingWriter() throws IOException {
+		StreamingTreesWriter writer = new StreamingTreesWriter(nullWriter, "benchmark", null);
+		writer.setTreeLabels("T", nTrees);
+		for (int i=0; i<nTrees; i++) writer.addTree(trees[i], comments[i]);
+		writer.close();
+	}
+}
@@ -0,0 +1,155 @@
+package biojavaExtensions;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.biojava.bio.seq.io.ParseException;
+import org.biojavax.bio.phylo.io.nexus.NexusBlock;
+
+/**
+ * What GenericBlock and its immutable counterpart FrozenGenericBlock have in common: key
+ * rules and every read of the block. Reads go through getField and stuffIterator, which
+ * each subclass implements over its own storage.
+ *
+ * @author woodhams
+ *
+ */
+public abstract class AbstractGenericBlock extends NexusBlock.Abstract {
+	private final boolean caseInsensitiveKeys;
+	private final Set<String> validKeys; // normalized. null if all keys are valid.
+
+	/**
+	 * @param blockName
+	 * @param validKeys - may be null, in which case all keys are valid.
+	 * @param caseInsensitiveKeys
+	 */
+	protected AbstractGenericBlock(String blockName, Set<String> validKeys, boolean caseInsensitiveKeys) {
+		super(blockName);
+		this.caseInsensitiveKeys = caseInsensitiveKeys;
+		if (validKeys != null && caseInsensitiveKeys) {
+			this.validKeys = new HashSet<String>();
+			for (String key : validKeys) this.validKeys.add(normalize(key));
+		} else {
+			this.validKeys = validKeys;
+		}
+	}
+
+	public boolean hasCaseInsensitiveKeys() {
+		return caseInsensitiveKeys;
+	}
+
+	/*
+	 * Normalized, or null if all keys are valid.
+	 */
+	Set<String> getValidKeys() {
+		return validKeys;
+	}
+
+	final String normalize(String key) {
+		return caseInsensitiveKeys ? key.toUpperCase(Locale.ROOT) : key;
+	}
+
+	/**
+	 * An immutable copy of this block (see GenericBlock.freeze.)
+	 */
+	public abstract FrozenGenericBlock freeze();
+
+	public abstract Iterator<GenericNexusStuff> stuffIterator();
+
+	/**
+	 * Return (first) field with name <key>, or null if there is none.
+	 * @param key
+	 * @return
+	 */
+	public abstract GenericNexusStuff getField(String key);
+
+	public boolean hasKey(String key) {
+		return getField(key) != null;
+	}
+
+	public String getValueTrimmed(String key) {
+		return getValueTrimmed(key,null);
+	}
+
+	public String getValueTrimmed(String key, String defaultValue) {
+		GenericNexusStuff stuff = getField(key);
+		String returnValue= (stuff != null) ? stuff.getValue().trim() : defaultValue;
+		return returnValue;
+	}
+
+	/*
+	 * Typed values (see GenericNexusStuff.getIntValue etc.) Parsed values are cached in the
+	 * field, so repeated gets don't reparse. Versions without a default throw ParseException
+	 * if there is no such field; all throw it if the value doesn't parse.
+	 * Arrays and lists are null if there is no such field.
+	 */
+
+	private GenericNexusStuff requireField(String key) throws ParseException {
+		GenericNexusStuff stuff = getField(key);
+		if (stuff == null) throw new ParseException("In block "+this.getBlockName()+", no field '"+key+"'");
+		return stuff;
+	}
+
+	public int getInt(String key) throws ParseException {
+		return requireField(key).getIntValue();
+	}
+
+	public int getInt(String key, int defaultValue) throws ParseException {
+		GenericNexusStuff stuff = getField(key);
+		return (stuff != null) ? stuff.getIntValue() : defaultValue;
+	}
+
+	public long getLong(String key) throws ParseException {
+		return requireField(key).getLongValue();
+	}
+
+	public long getLong(String key, long defaultValue) throws ParseException {
+		GenericNexusStuff stuff = getField(key);
+		return (stuff != null) ? stuff.getLongValue() : defaultValue;
+	}
+
+	public double getDouble(String key) throws ParseException {
+		return requireField(key).getDoubleValue();
+	}
+
+	public double getDouble(String key, double defaultValue) throws ParseException {
+		GenericNexusStuff stuff = getField(key);
+		return (stuff != null) ? stuff.getDoubleValue() : defaultValue;
+	}
+
+	public boolean getBoolean(String key) throws ParseException {
+		return requireField(key).getBooleanValue();
+	}
+
+	public boolean getBoolean(String key, boolean defaultValue) throws ParseException {
+		GenericNexusStuff stuff = getField(key);
+		return (stuff != null) ? stuff.getBooleanValue() : defaultValue;
+	}
+
+	public int[] getIntArray(String key) throws ParseException {
+		GenericNexusStuff stuff = getField(key);
+		return (stuff != null) ? stuff.getIntArrayValue() : null;
+	}
+
+	public double[] getDoubleArray(String key) throws ParseException {
+		GenericNexusStuff stuff = getField(key);
+		return (stuff != null) ? stuff.getDoubleArrayValue() : null;
+	}
+
+	public List<String> getStringList(String key) throws ParseException {
+		GenericNexusStuff stuff = getField(key);
+		return (stuff != null) ? stuff.getStringListValue() : null;
+	}
+
+	public void writeBlockContents(final Writer writer)
+			throws IOException {
+		Iterator<GenericNexusStuff> iterator = stuffIterator();
+		while (iterator.hasNext()) {
+			iterator.next().writeObject(writer);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package biojavaExtensions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a BGZF file (see BgzfOutputStream.) Blocks are read and inflated only when the
+ * data in them is needed, so after seek(virtualOffset) only the blocks from that point
+ * on are decompressed.
+ *
+ * setEnd(virtualOffset) makes the stream stop there, so a single NEXUS block or tree
+ * whose start and end offsets are known can be handed to a parser as a stream by itself.
+ *
+ * Only uses the JDK's Inflater.
+ *
+ * @author woodhams
+ *
+ */
+public class BgzfInputStream extends InputStream {
+
+	private FileChannel channel;
+	private Inflater inflater;
+	private byte[] compressed;
+	private byte[] data;          // uncompressed data of the current block
+	private int dataLength;
+	private int dataPos;
+	private long blockAddress;    // file offset of the current block
+	private long nextBlockAddress;
+	private long end;             // virtual offset at which to stop, or -1
+
+	public BgzfInputStream(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		inflater = new Inflater(true);
+		compressed = new byte[BgzfOutputStream.MAX_BLOCK_SIZE];
+		data = new byte[BgzfOutputStream.MAX_BLOCK_SIZE];
+		dataLength = 0;
+		dataPos = 0;
+		blockAddress = 0;
+		nextBlockAddress = 0;
+		end = -1;
+	}
+
+	/**
+	 * @return virtual offset of the next byte to be read.
+	 */
+	public long getVirtualOffset() {
+		if (dataPos == dataLength) return nextBlockAddress << 16; // the same position, as the next block sees it
+		return (blockAddress << 16) | dataPos;
+	}
+
+	public void seek(long virtualOffset) throws IOException {
+		readBlock(virtualOffset >>> 16);
+		int offset = (int)(virtualOffset & 0xffff);
+		if (offset > dataLength) throw new IOException("Virtual offset "+virtualOffset+" is beyond end of block");
+		dataPos = offset;
+	}
+
+	/**
+	 * @param virtualOffset - reading stops here. -1 for no limit (the default.)
+	 */
+	public void setEnd(long virtualOffset) {
+		end = virtualOffset;
+	}
+
+	/*
+	 * Make sure there is data to read. False at end of file (or end set by setEnd.)
+	 */
+	private boolean ensureData() throws IOException {
+		while (dataPos == dataLength) {
+			if (nextBlockAddress >= channel.size()) return false;
+			readBlock(nextBlockAddress); // skips over empty blocks, e.g. the end-of-file block
+		}
+		return end < 0 || Long.compareUnsigned(getVirtualOffset(), end) < 0;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!ensureData()) return -1;
+		return data[dataPos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		if (!ensureData()) return -1;
+		int n = Math.min(len, dataLength-dataPos);
+		if (end >= 0 && (end >>> 16) == blockAddress) n = Math.min(n, (int)(end & 0xffff)-dataPos);
+		System.arraycopy(data, dataPos, b, off, n);
+		dataPos += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return dataLength-dataPos;
+	}
+
+	private void readBlock(long address) throws IOException {
+		ByteBuffer header = ByteBuffer.wrap(compressed, 0, 12);
+		readFully(header, address);
+		if ((compressed[0] & 0xff) != 31 || (compressed[1] & 0xff) != 139 || compressed[2] != 8 || (compressed[3] & 4) == 0)
+			throw new IOException("Not a BGZF block at file offset "+address);
+		int xlen = getShort(compressed, 10);
+		readFully(ByteBuffer.wrap(compressed, 12, xlen), address+12);
+		int blockSize = -1;
+		for (int i=12; i+4<=12+xlen; i+=4+getShort(compressed, i+2)) {
+			if (compressed[i] == 'B' && compressed[i+1] == 'C' && getShort(compressed, i+2) == 2) {
+				blockSize = getShort(compressed, i+4)+1;
+			}
+		}
+		if (blockSize < 0) throw new IOException("gzip member at file offset "+address+" is not a BGZF block");
+		int headerSize = 12+xlen;
+		readFully(ByteBuffer.wrap(compressed, headerSize, blockSize-headerSize), address+headerSize);
+
+		int expectedLength = getInt(compressed, blockSize-4);
+		inflater.reset();
+		inflater.setInput(compressed, headerSize, blockSize-headerSize-BgzfOutputStream.FOOTER_SIZE);
+		try {
+			dataLength = inflater.inflate(data, 0, data.length);
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt BGZF block at file offset "+address, e);
+		}
+		if (dataLength != expectedLength || !inflater.finished())
+			throw new IOException("Corrupt BGZF block at file offset "+address);
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, dataLength);
+		if ((int)crc.getValue() != getInt(compressed, blockSize-8))
+			throw new IOException("CRC error in BGZF block at file offset "+address);
+		blockAddress = address;
+		nextBlockAddress = address+blockSize;
+		dataPos = 0;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		long start = position - buffer.position();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, start+buffer.position()) < 0) throw new IOException("BGZF file is truncated");
+		}
+	}
+
+	private static int getShort(byte[] b, int pos) {
+		return (b[pos] & 0xff) | ((b[pos+1] & 0xff) << 8);
+	}
+
+	private static int getInt(byte[] b, int pos) {
+		return getShort(b, pos) | (getShort(b, pos+2) << 16);
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		channel.close();
+	}
+}
@@ -0,0 +1,106 @@
+package biojavaExtensions;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.SequenceInputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+
+import org.biojava.bio.seq.io.ParseException;
+import org.biojavax.bio.phylo.io.nexus.NexusBlock;
+import org.biojavax.bio.phylo.io.nexus.NexusFile;
+import org.biojavax.bio.phylo.io.nexus.NexusFileBuilder;
+import org.biojavax.bio.phylo.io.nexus.NexusFileFormat;
+import org.biojavax.bio.phylo.io.nexus.NexusFileListener;
+import org.biojavax.bio.phylo.io.nexus.NexusObject;
+
+/**
+ * Reading and writing NEXUS files compressed as BGZF (see BgzfOutputStream.)
+ *
+ * writeFile returns the virtual offset of every block (or top level comment) written, so a
+ * single block can later be parsed with parseBlock without decompressing the rest of the file.
+ * For finer grained access (e.g. to single trees) write through a StreamingTreesWriter on a
+ * BgzfOutputStream, noting the stream's getPosition() (after flushing the Writer) as you go.
+ *
+ * @author woodhams
+ *
+ */
+public class BgzfNexus {
+
+	private static final byte[] HEADER = ("#NEXUS"+NexusFileFormat.NEW_LINE).getBytes(StandardCharsets.US_ASCII);
+
+	private BgzfNexus() {} // static methods only
+
+	/**
+	 * Write a NexusFile as BGZF, as NexusFileFormat.writeFile would write it uncompressed.
+	 * @param file
+	 * @param nexusFile
+	 * @param executor - to compress blocks in parallel. May be null.
+	 * @return virtual offsets of the start of each object in nexusFile, plus the end of the last one.
+	 * @throws IOException
+	 */
+	public static long[] writeFile(File file, NexusFile nexusFile, ExecutorService executor) throws IOException {
+		BgzfOutputStream out = new BgzfOutputStream(new FileOutputStream(file), executor);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		try {
+			writer.write("#NEXUS");
+			writer.write(NexusFileFormat.NEW_LINE);
+			int nObjects = 0;
+			for (Iterator<?> iter = nexusFile.objectIterator(); iter.hasNext(); iter.next()) nObjects++;
+			long[] positions = new long[nObjects+1];
+			Iterator<?> iter = nexusFile.objectIterator();
+			for (int i=0; i<nObjects; i++) {
+				writer.flush();
+				positions[i] = out.getPosition();
+				((NexusObject)iter.next()).writeObject(writer);
+				writer.write(NexusFileFormat.NEW_LINE);
+			}
+			writer.flush();
+			positions[nObjects] = out.getPosition();
+			writer.close();
+			long[] offsets = new long[positions.length];
+			for (int i=0; i<positions.length; i++) offsets[i] = out.toVirtualOffset(positions[i]);
+			return offsets;
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * As NexusFileFormat.parseFile, for a BGZF file.
+	 */
+	public static void parseFile(NexusFileListener listener, File file) throws IOException, ParseException {
+		try (BgzfInputStream in = new BgzfInputStream(file)) {
+			NexusFileFormat.parseInputStream(listener, in);
+		}
+	}
+
+	/**
+	 * Parse the single block between two virtual offsets (as returned by writeFile),
+	 * decompressing only the BGZF blocks which contain it.
+	 * @param builder - with the block parser required for this block set
+	 * @param file
+	 * @param start
+	 * @param end
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static NexusBlock parseBlock(NexusFileBuilder builder, File file, long start, long end)
+			throws IOException, ParseException {
+		try (BgzfInputStream in = new BgzfInputStream(file)) {
+			in.seek(start);
+			in.setEnd(end);
+			NexusFileFormat.parseInputStream(builder, new SequenceInputStream(new ByteArrayInputStream(HEADER), in));
+		}
+		Iterator<?> blocks = builder.getNexusFile().blockIterator();
+		if (!blocks.hasNext()) throw new ParseException("No block found between virtual offsets "+start+" and "+end);
+		return (NexusBlock)blocks.next();
+	}
+}
@@ -0,0 +1,251 @@
+package biojavaExtensions;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes BGZF ("blocked gzip", as used for BAM and tabix files): a series of gzip members,
+ * each holding at most 64KB of data and recording its own compressed size, followed by an
+ * empty end-of-file member. The result is a valid gzip file, but can also be read from any
+ * block by BgzfInputStream.
+ *
+ * Positions in a BGZF file are 'virtual offsets': the file offset of the start of a block,
+ * shifted left 16 bits, plus the offset within the uncompressed block. Anything written here
+ * can be found again by noting getPosition() (the number of bytes written so far) while
+ * writing, and converting it with toVirtualOffset().
+ *
+ * If given an ExecutorService, blocks are compressed in parallel on it (and still written
+ * in order.) flush() does not end the current block, so a Writer on top of this stream can
+ * be flushed as often as needed; use finishBlock() to end a block early.
+ *
+ * Only uses the JDK's Deflater.
+ *
+ * @author woodhams
+ *
+ */
+public class BgzfOutputStream extends OutputStream {
+
+	static final int MAX_BLOCK_DATA = 65280; // as htslib: leaves room for deflate overhead on incompressible data
+	static final int MAX_BLOCK_SIZE = 65536;
+	static final int HEADER_SIZE = 18;
+	static final int FOOTER_SIZE = 8;
+	static final byte[] EOF_BLOCK = {
+		31, (byte)139, 8, 4, 0, 0, 0, 0, 0, (byte)255, 6, 0, 'B', 'C', 2, 0, 27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+	};
+
+	private OutputStream out;
+	private int compressionLevel;
+	private ExecutorService executor; // null to compress in the calling thread
+	private int maxPending;
+	private ArrayDeque<PendingBlock> pending;
+
+	private byte[] buffer;       // data of the current block
+	private int bufferLength;
+	private long bufferStart;    // uncompressed position of the start of the current block
+	private long compressedWritten;
+
+	// Uncompressed and compressed start positions of each block written so far.
+	private long[] blockStarts;
+	private long[] blockAddresses;
+	private int nBlocks;
+	private boolean closed;
+
+	private static class PendingBlock {
+		private long start;
+		private Future<byte[]> future;
+		PendingBlock(long start, Future<byte[]> future) {
+			this.start = start;
+			this.future = future;
+		}
+	}
+
+	public BgzfOutputStream(OutputStream out) {
+		this(out, null);
+	}
+
+	/**
+	 * @param out
+	 * @param executor - may be null, in which case blocks are compressed by the writing thread.
+	 */
+	public BgzfOutputStream(OutputStream out, ExecutorService executor) {
+		this(out, executor, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	public BgzfOutputStream(OutputStream out, ExecutorService executor, int compressionLevel) {
+		this.out = out;
+		this.executor = executor;
+		this.compressionLevel = compressionLevel;
+		maxPending = 2*Runtime.getRuntime().availableProcessors();
+		pending = new ArrayDeque<PendingBlock>();
+		buffer = new byte[MAX_BLOCK_DATA];
+		bufferLength = 0;
+		bufferStart = 0;
+		compressedWritten = 0;
+		blockStarts = new long[64];
+		blockAddresses = new long[64];
+		nBlocks = 0;
+		closed = false;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		buffer[bufferLength++] = (byte)b;
+		if (bufferLength == MAX_BLOCK_DATA) finishBlock();
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = Math.min(len, MAX_BLOCK_DATA-bufferLength);
+			System.arraycopy(b, off, buffer, bufferLength, n);
+			bufferLength += n;
+			off += n;
+			len -= n;
+			if (bufferLength == MAX_BLOCK_DATA) finishBlock();
+		}
+	}
+
+	/**
+	 * @return number of (uncompressed) bytes written so far.
+	 */
+	public long getPosition() {
+		return bufferStart + bufferLength;
+	}
+
+	/**
+	 * Convert an uncompressed position (as from getPosition()) to a virtual offset.
+	 * May wait for blocks still being compressed.
+	 * @param position - must not be greater than getPosition()
+	 * @throws IOException
+	 */
+	public long toVirtualOffset(long position) throws IOException {
+		if (position < 0 || position > getPosition()) throw new IllegalArgumentException("Position "+position+" not yet written");
+		if (!closed && position >= bufferStart) {
+			// In the current block, which starts after all pending blocks.
+			while (!pending.isEmpty()) writePending();
+			return (compressedWritten << 16) | (position - bufferStart);
+		}
+		while (!pending.isEmpty() && pending.peekFirst().start <= position) writePending();
+		int i = Arrays.binarySearch(blockStarts, 0, nBlocks, position);
+		if (i < 0) i = -i-2; // block containing position
+		return (blockAddresses[i] << 16) | (position - blockStarts[i]);
+	}
+
+	/**
+	 * End the current block (unless it is empty.)
+	 */
+	public void finishBlock() throws IOException {
+		if (bufferLength == 0) return;
+		final byte[] data = buffer;
+		final int length = bufferLength;
+		if (executor == null) {
+			recordBlock(bufferStart);
+			writeBlock(compressBlock(data, length, compressionLevel));
+		} else {
+			if (pending.size() >= maxPending) writePending();
+			Future<byte[]> future = executor.submit(new Callable<byte[]>() {
+				public byte[] call() {
+					return compressBlock(data, length, compressionLevel);
+				}
+			});
+			pending.addLast(new PendingBlock(bufferStart, future));
+			buffer = new byte[MAX_BLOCK_DATA];
+		}
+		bufferStart += length;
+		bufferLength = 0;
+	}
+
+	private void writePending() throws IOException {
+		PendingBlock block = pending.removeFirst();
+		recordBlock(block.start);
+		try {
+			writeBlock(block.future.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Compression failed", e.getCause());
+		}
+	}
+
+	private void recordBlock(long start) {
+		if (nBlocks == blockStarts.length) {
+			blockStarts = Arrays.copyOf(blockStarts, 2*nBlocks);
+			blockAddresses = Arrays.copyOf(blockAddresses, 2*nBlocks);
+		}
+		blockStarts[nBlocks] = start;
+		blockAddresses[nBlocks] = compressedWritten;
+		nBlocks++;
+	}
+
+	private void writeBlock(byte[] block) throws IOException {
+		out.write(block);
+		compressedWritten += block.length;
+	}
+
+	/*
+	 * One complete gzip member with the BGZF extra field.
+	 */
+	static byte[] compressBlock(byte[] data, int length, int compressionLevel) {
+		byte[] block = new byte[MAX_BLOCK_SIZE];
+		Deflater deflater = new Deflater(compressionLevel, true);
+		int compressedLength;
+		try {
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+			compressedLength = deflater.deflate(block, HEADER_SIZE, MAX_BLOCK_SIZE-HEADER_SIZE-FOOTER_SIZE);
+			if (!deflater.finished()) throw new IllegalStateException("BGZF block too large after compression");
+		} finally {
+			deflater.end();
+		}
+		int blockSize = HEADER_SIZE + compressedLength + FOOTER_SIZE;
+		System.arraycopy(EOF_BLOCK, 0, block, 0, 16); // header up to BSIZE is the same for every block
+		putShort(block, 16, blockSize-1);
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		putInt(block, blockSize-8, (int)crc.getValue());
+		putInt(block, blockSize-4, length);
+		return Arrays.copyOf(block, blockSize);
+	}
+
+	private static void putShort(byte[] b, int pos, int value) {
+		b[pos] = (byte)value;
+		b[pos+1] = (byte)(value >>> 8);
+	}
+
+	private static void putInt(byte[] b, int pos, int value) {
+		putShort(b, pos, value);
+		putShort(b, pos+2, value >>> 16);
+	}
+
+	/**
+	 * Flushes completed blocks to the underlying stream. Does not end the current block.
+	 */
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Writes any remaining data and the end-of-file block, and closes the underlying stream.
+	 * (Does not shut down the executor.)
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		finishBlock();
+		while (!pending.isEmpty()) writePending();
+		recordBlock(bufferStart);
+		writeBlock(EOF_BLOCK);
+		out.close();
+		closed = true;
+	}
+}
@@ -0,0 +1,297 @@
+package biojavaExtensions;
+
+import java.util.Arrays;
+import java.util.function.ToIntFunction;
+
+import org.biojava.bio.seq.io.ParseException;
+
+/**
+ * A tree held in a few flat arrays rather than as node objects: nodes are numbered
+ * 0..n-1 in preorder (so the root is node 0 and a parent's number is less than its
+ * children's), with
+ *   +  parent[i] - parent of node i (-1 for the root)
+ *   +  children of node i are children[childStart[i]] .. children[childStart[i+1]-1], in
+ *      the order they appear in the Newick string
+ *   +  branchLength[i] - length of the branch above node i (NaN if not given)
+ *   +  leafId[i] - taxon ID of leaf i (see TaxonRegistry), -1 for internal nodes and
+ *      unlabelled leaves
+ *   +  internal node labels (e.g. support values), null if none.
+ *
+ * Parsing and writing are both single passes without recursion, so trees of any depth
+ * can be handled. Comments within the Newick string are not kept.
+ * Branch lengths and leaf IDs can be changed in place; the topology can't.
+ * copy() gives an independent copy to change.
+ *
+ * ExtTreesBlock.getCompactTree makes these from a TREES block, resolving leaf labels
+ * through its TRANSLATE table, and setCompactTree puts a (modified) tree back.
+ *
+ * @author woodhams
+ *
+ */
+public class CompactTree {
+	private int nNodes;
+	private int[] parent;
+	private int[] childStart;
+	private int[] children;
+	private double[] branchLength;
+	private int[] leafId;
+	private String[] nodeLabel; // labels of internal nodes. null if there are none.
+
+	private CompactTree(int capacity) {
+		parent = new int[capacity];
+		branchLength = new double[capacity];
+		leafId = new int[capacity];
+		nNodes = 0;
+	}
+
+	/**
+	 * A copy which can be changed without affecting this tree. (The topology and internal
+	 * node labels, which can't be changed, are shared.)
+	 */
+	public CompactTree copy() {
+		CompactTree tree = new CompactTree(0);
+		tree.nNodes = nNodes;
+		tree.parent = parent;
+		tree.childStart = childStart;
+		tree.children = children;
+		tree.nodeLabel = nodeLabel;
+		tree.branchLength = branchLength.clone();
+		tree.leafId = leafId.clone();
+		return tree;
+	}
+
+	/**
+	 * @param newick - with or without the terminating ';'
+	 * @param taxa - leaf labels are registered in it to get their IDs.
+	 */
+	public static CompactTree parse(String newick, TaxonRegistry taxa) throws ParseException {
+		return parse(newick, taxa::register);
+	}
+
+	/**
+	 * @param newick - with or without the terminating ';'
+	 * @param leafIds - gives the ID of a leaf label. Must be thread safe if parsing in parallel.
+	 */
+	static CompactTree parse(String newick, ToIntFunction<String> leafIds) throws ParseException {
+		int n = newick.length();
+		CompactTree tree = new CompactTree(Math.max(16, n/4));
+		int current = -1;        // node whose children are being read
+		int last = -1;           // node most recently completed: takes any label or length which follows
+		boolean expectNode = true;
+		boolean labelAllowed = false; // just after ')': an internal node label may follow
+		int i = 0;
+		while (i < n) {
+			char c = newick.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '[') {
+				i = skipComment(newick, i);
+			} else if (c == '(') {
+				if (!expectNode) throw malformed(newick, i);
+				current = tree.addNode(current, -1);
+				labelAllowed = false;
+				i++;
+			} else if (c == ',' || c == ')') {
+				if (current < 0) throw malformed(newick, i);
+				if (expectNode) tree.addNode(current, -1); // unlabelled leaf, e.g. "(A,)"
+				if (c == ',') {
+					expectNode = true;
+					labelAllowed = false;
+				} else {
+					last = current;
+					current = tree.parent[current];
+					expectNode = false;
+					labelAllowed = true;
+				}
+				i++;
+			} else if (c == ':') {
+				if (expectNode) last = tree.addNode(current, -1);
+				expectNode = false;
+				labelAllowed = false;
+				int start = i+1;
+				i = numberEnd(newick, start);
+				try {
+					tree.branchLength[last] = Double.parseDouble(newick.substring(start, i));
+				} catch (NumberFormatException e) {
+					throw malformed(newick, start);
+				}
+			} else if (c == ';') {
+				break;
+			} else {
+				int end = NewickLabels.labelEnd(newick, i);
+				String label = NewickLabels.unquote(newick, i, end);
+				if (expectNode) {
+					last = tree.addNode(current, leafIds.applyAsInt(label));
+					expectNode = false;
+					labelAllowed = false;
+				} else if (labelAllowed) {
+					tree.setNodeLabel(last, label);
+					labelAllowed = false;
+				} else {
+					throw malformed(newick, i);
+				}
+				i = end;
+			}
+		}
+		if (current >= 0) throw new ParseException("Unbalanced parentheses in tree: "+abbreviate(newick));
+		if (tree.nNodes == 0) throw new ParseException("Empty tree");
+		tree.finish();
+		return tree;
+	}
+
+	private int addNode(int parentNode, int id) {
+		if (nNodes == parent.length) {
+			int capacity = 2*nNodes;
+			parent = Arrays.copyOf(parent, capacity);
+			branchLength = Arrays.copyOf(branchLength, capacity);
+			leafId = Arrays.copyOf(leafId, capacity);
+			if (nodeLabel != null) nodeLabel = Arrays.copyOf(nodeLabel, capacity);
+		}
+		parent[nNodes] = parentNode;
+		branchLength[nNodes] = Double.NaN;
+		leafId[nNodes] = id;
+		return nNodes++;
+	}
+
+	private void setNodeLabel(int node, String label) {
+		if (nodeLabel == null) nodeLabel = new String[parent.length];
+		nodeLabel[node] = label;
+	}
+
+	/*
+	 * Trim the arrays and build the child lists (counting sort of nodes by parent, which
+	 * keeps children in preorder, i.e. Newick order.)
+	 */
+	private void finish() {
+		parent = Arrays.copyOf(parent, nNodes);
+		branchLength = Arrays.copyOf(branchLength, nNodes);
+		leafId = Arrays.copyOf(leafId, nNodes);
+		if (nodeLabel != null) nodeLabel = Arrays.copyOf(nodeLabel, nNodes);
+		childStart = new int[nNodes+1];
+		for (int node=1; node<nNodes; node++) childStart[parent[node]+1]++;
+		for (int node=0; node<nNodes; node++) childStart[node+1] += childStart[node];
+		children = new int[Math.max(0, nNodes-1)];
+		int[] next = Arrays.copyOf(childStart, nNodes);
+		for (int node=1; node<nNodes; node++) children[next[parent[node]]++] = node;
+	}
+
+	private static int skipComment(String newick, int start) {
+		int depth = 0;
+		int i = start;
+		int n = newick.length();
+		do {
+			char c = newick.charAt(i++);
+			if (c == '[') depth++;
+			else if (c == ']') depth--;
+		} while (depth>0 && i<n);
+		return i;
+	}
+
+	private static int numberEnd(String newick, int start) {
+		int i = start;
+		while (i < newick.length() && !NewickLabels.isPunctuation(newick.charAt(i)) && !Character.isWhitespace(newick.charAt(i))) i++;
+		return i;
+	}
+
+	private static ParseException malformed(String newick, int position) {
+		return new ParseException("Malformed tree at character "+position+": "+abbreviate(newick));
+	}
+
+	private static String abbreviate(String newick) {
+		return (newick.length() <= 80) ? newick : newick.substring(0, 77)+"...";
+	}
+
+	public int getNNodes() { return nNodes; }
+	public int getRoot() { return 0; }
+	public int getParent(int node) { return parent[node]; }
+	public int getNChildren(int node) { return childStart[node+1]-childStart[node]; }
+	public int getChild(int node, int k) { return children[childStart[node]+k]; }
+	public boolean isLeaf(int node) { return childStart[node+1] == childStart[node]; }
+	public int getLeafId(int node) { return leafId[node]; }
+	public double getBranchLength(int node) { return branchLength[node]; }
+	public boolean hasBranchLength(int node) { return !Double.isNaN(branchLength[node]); }
+	public String getNodeLabel(int node) { return (nodeLabel == null) ? null : nodeLabel[node]; }
+
+	public int getNLeaves() {
+		int n = 0;
+		for (int node=0; node<nNodes; node++) if (isLeaf(node)) n++;
+		return n;
+	}
+
+	/**
+	 * NaN to remove the branch length.
+	 */
+	public void setBranchLength(int node, double length) {
+		branchLength[node] = length;
+	}
+
+	public void setLeafId(int node, int id) {
+		if (!isLeaf(node)) throw new IllegalArgumentException("Node "+node+" is not a leaf");
+		leafId[node] = id;
+	}
+
+	/**
+	 * The Newick string, without terminating ';'.
+	 * @param leafNames - what to write for each leaf ID (quoted if necessary.)
+	 */
+	public String toNewick(String[] leafNames) {
+		StringBuilder out = new StringBuilder(nNodes*12);
+		appendNewick(out, leafNames);
+		return out.toString();
+	}
+
+	public void appendNewick(StringBuilder out, String[] leafNames) {
+		// Depth first walk with an explicit stack of (node, next child to write.)
+		if (isLeaf(0)) {
+			appendNode(out, 0, leafNames);
+			return;
+		}
+		int[] stack = new int[16];
+		int[] nextChild = new int[16];
+		int depth = 0;
+		stack[0] = 0;
+		nextChild[0] = 0;
+		out.append('(');
+		while (depth >= 0) {
+			int node = stack[depth];
+			int k = nextChild[depth];
+			if (k == getNChildren(node)) {
+				out.append(')');
+				appendNode(out, node, leafNames);
+				depth--;
+				continue;
+			}
+			nextChild[depth]++;
+			if (k > 0) out.append(',');
+			int child = getChild(node, k);
+			if (isLeaf(child)) {
+				appendNode(out, child, leafNames);
+			} else {
+				out.append('(');
+				if (++depth == stack.length) {
+					stack = Arrays.copyOf(stack, 2*depth);
+					nextChild = Arrays.copyOf(nextChild, 2*depth);
+				}
+				stack[depth] = child;
+				nextChild[depth] = 0;
+			}
+		}
+	}
+
+	/*
+	 * Label (leaf name or internal label) and branch length of a node.
+	 */
+	private void appendNode(StringBuilder out, int node, String[] leafNames) {
+		String label = isLeaf(node) ? (leafId[node] < 0 ? null : leafNames[leafId[node]]) : getNodeLabel(node);
+		if (label != null) NewickLabels.appendQuotedIfNeeded(label, out);
+		double length = branchLength[node];
+		if (!Double.isNaN(length)) {
+			out.append(':');
+			if (length == Math.rint(length) && Math.abs(length) < 1e15) {
+				out.append((long)length);
+			} else {
+				out.append(length);
+			}
+		}
+	}
+}
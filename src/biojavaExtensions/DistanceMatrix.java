@@ -0,0 +1,12 @@
+package biojavaExtensions;
+
+/**
+ * Read access to a square matrix of distances between taxa, indexed by taxon number.
+ * 
+ * @author woodhams
+ *
+ */
+public interface DistanceMatrix {
+	public int getNTax();
+	public double getDistance(int row, int col);
+}
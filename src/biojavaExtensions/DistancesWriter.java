@@ -0,0 +1,287 @@
+package biojavaExtensions;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.biojavax.bio.phylo.io.nexus.DistancesBlock;
+import org.biojavax.bio.phylo.io.nexus.NexusFileFormat;
+
+/**
+ * Writes a DISTANCES block directly from a matrix of doubles, without building a 
+ * DistancesBlock (as NexusUtils.makeDistancesBlock does) and without a String per cell.
+ * Each row is formatted into a reused char buffer by a fixed precision routine.
+ * 
+ * Defaults (full matrix, diagonal included, 3 decimal places) match makeDistancesBlock.
+ * Writing only the lower or upper triangle halves the size of a symmetric matrix.
+ * 
+ * If an executor is set, chunks of rows are formatted in parallel, and written in order.
+ * 
+ * Rounding is half-up on value*10^precision, which can differ from String.format in the 
+ * last digit for values within an ulp or so of a rounding tie. NaN is written as the 
+ * missing character '?'. 
+ * 
+ * @author woodhams
+ *
+ */
+public class DistancesWriter {
+	
+	public enum Triangle {LOWER, UPPER, BOTH};
+	
+	private static final double[] POWERS_OF_TEN = {1e0,1e1,1e2,1e3,1e4,1e5,1e6,1e7,1e8,1e9,1e10,1e11,1e12,1e13,1e14,1e15};
+	private static final double MAX_FAST = 9.007199254740992E15; // 2^53: largest scaled value we can round exactly.
+	private static final char MISSING = '?';
+	
+	private Triangle triangle;
+	private boolean diagonal;
+	private int precision;
+	private ExecutorService executor;
+	private int rowsPerChunk;
+	private boolean newTaxa;
+	private List<String> taxLabels; // null or empty for no TAXLABELS command
+	
+	public DistancesWriter() {
+		triangle = Triangle.BOTH;
+		diagonal = true;
+		precision = 3;
+		executor = null;
+		rowsPerChunk = 64;
+		newTaxa = false;
+		taxLabels = null;
+	}
+	
+	public void setTriangle(Triangle triangle) { this.triangle = triangle; }
+	
+	/*
+	 * Whether to write the diagonal. Ignored when triangle is BOTH.
+	 */
+	public void setDiagonal(boolean diagonal) { this.diagonal = diagonal; }
+	
+	/*
+	 * Whether to write DIMENSIONS NEWTAXA. Default false.
+	 */
+	public void setNewTaxa(boolean newTaxa) { this.newTaxa = newTaxa; }
+	
+	/*
+	 * Labels for a TAXLABELS command (written after FORMAT), or null for none (the default.)
+	 */
+	public void setTaxLabels(List<String> taxLabels) { this.taxLabels = taxLabels; }
+	
+	/*
+	 * Number of decimal places, 0 to 15.
+	 */
+	public void setPrecision(int precision) {
+		if (precision < 0 || precision >= POWERS_OF_TEN.length) 
+			throw new IllegalArgumentException("Precision must be from 0 to "+(POWERS_OF_TEN.length-1));
+		this.precision = precision; 
+	}
+	
+	/**
+	 * Format rows in parallel on this executor (null for single threaded.)
+	 * @param executor
+	 * @param rowsPerChunk - rows per task.
+	 */
+	public void setExecutor(ExecutorService executor, int rowsPerChunk) {
+		this.executor = executor;
+		this.rowsPerChunk = rowsPerChunk;
+	}
+	
+	public void writeBlock(Writer writer, String[] taxa, double[][] distances) throws IOException {
+		for (double[] row : distances) {
+			if (row.length != taxa.length) 
+				throw new IllegalArgumentException("distances must be square matrix of same size as taxa");
+		}
+		writeBlock(writer, taxa, asDistanceMatrix(distances));
+	}
+	
+	/**
+	 * Writes a complete DISTANCES block, BEGIN to END.
+	 */
+	public void writeBlock(Writer writer, String[] taxa, DistanceMatrix distances) throws IOException {
+		writer.write("BEGIN " + DistancesBlock.DISTANCES_BLOCK + ";" + NexusFileFormat.NEW_LINE);
+		writeBlockContents(writer, taxa, distances);
+		writer.write("END;" + NexusFileFormat.NEW_LINE);
+	}
+	
+	/**
+	 * Writes the commands of a DISTANCES block, for use by NexusBlock.writeBlockContents.
+	 */
+	public void writeBlockContents(final Writer writer, final String[] taxa, final DistanceMatrix distances) throws IOException {
+		final int n = taxa.length;
+		if (distances.getNTax() != n) 
+			throw new IllegalArgumentException("distances must be square matrix of same size as taxa");
+		writer.write("\tDIMENSIONS " + (newTaxa ? "NEWTAXA " : "") + "NTAX=" + n + ";" + NexusFileFormat.NEW_LINE);
+		writer.write("\tFORMAT TRIANGLE=" + triangle.name());
+		if (!diagonal && triangle != Triangle.BOTH) writer.write(" NODIAGONAL");
+		writer.write(" MISSING=" + MISSING + ";" + NexusFileFormat.NEW_LINE);
+		if (taxLabels != null && !taxLabels.isEmpty()) {
+			writer.write("\tTAXLABELS");
+			for (String taxLabel : taxLabels) {
+				writer.write(' ');
+				writer.write(NexusUtils.quoteToken(taxLabel));
+			}
+			writer.write(";" + NexusFileFormat.NEW_LINE);
+		}
+		writer.write("\tMATRIX" + NexusFileFormat.NEW_LINE);
+		
+		if (executor == null) {
+			char[][] buffer = new char[1][];
+			for (int row=0; row<n; row++) {
+				int length = formatRow(taxa, distances, row, buffer);
+				writer.write(buffer[0], 0, length);
+			}
+		} else {
+			writeParallel(writer, taxa, distances);
+		}
+		writer.write("\t;" + NexusFileFormat.NEW_LINE);
+	}
+	
+	/*
+	 * Chunks are formatted in parallel, and written in order as each completes. 
+	 * At most a few chunks per thread are in memory at once.
+	 */
+	private void writeParallel(Writer writer, final String[] taxa, final DistanceMatrix distances) throws IOException {
+		int n = taxa.length;
+		int maxInFlight = 2*Runtime.getRuntime().availableProcessors();
+		Deque<Future<char[]>> inFlight = new ArrayDeque<Future<char[]>>();
+		for (int chunkStart=0; chunkStart<n; chunkStart+=rowsPerChunk) {
+			final int start = chunkStart;
+			final int end = Math.min(n, chunkStart+rowsPerChunk);
+			inFlight.add(executor.submit(new Callable<char[]>() {
+				public char[] call() {
+					char[][] buffer = new char[1][];
+					StringBuilder chunk = new StringBuilder();
+					for (int row=start; row<end; row++) {
+						int length = formatRow(taxa, distances, row, buffer);
+						chunk.append(buffer[0], 0, length);
+					}
+					char[] chars = new char[chunk.length()];
+					chunk.getChars(0, chars.length, chars, 0);
+					return chars;
+				}
+			}));
+			if (inFlight.size() >= maxInFlight) writer.write(getChunk(inFlight.poll()));
+		}
+		while (!inFlight.isEmpty()) writer.write(getChunk(inFlight.poll()));
+	}
+	
+	private static char[] getChunk(Future<char[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	/*
+	 * Formats one row, "\tlabel\td\td...\n", into buffer[0] (which is replaced if too small.) 
+	 * Returns the number of chars used.
+	 */
+	private int formatRow(String[] taxa, DistanceMatrix distances, int row, char[][] buffer) {
+		int n = taxa.length;
+		int firstCol, lastCol; // inclusive
+		switch (triangle) {
+		case LOWER : firstCol = 0;   lastCol = diagonal ? row : row-1; break;
+		case UPPER : firstCol = diagonal ? row : row+1; lastCol = n-1; break;
+		default    : firstCol = 0;   lastCol = n-1; break;
+		}
+		String label = NexusUtils.quoteToken(taxa[row]);
+		int nCells = Math.max(0, lastCol-firstCol+1);
+		int newLineLength = NexusFileFormat.NEW_LINE.length();
+		// Enough if every value takes the fast route. Grown below for any which don't.
+		int maxLength = 1 + label.length() + nCells*(maxFastLength()+1) + newLineLength;
+		if (buffer[0] == null || buffer[0].length < maxLength) buffer[0] = new char[maxLength];
+		char[] buf = buffer[0];
+		
+		int pos = 0;
+		buf[pos++] = '\t';
+		label.getChars(0, label.length(), buf, pos);
+		pos += label.length();
+		for (int col=firstCol; col<=lastCol; col++) {
+			double value = distances.getDistance(row, col);
+			if (!isFast(value)) {
+				// Room for this cell plus the rest taking the fast route
+				int needed = pos + 1 + maxSlowLength() + (lastCol-col)*(maxFastLength()+1) + newLineLength;
+				if (needed > buf.length) buf = buffer[0] = Arrays.copyOf(buf, Math.max(needed, 2*buf.length));
+			}
+			buf[pos++] = '\t';
+			pos = formatDouble(value, buf, pos);
+		}
+		NexusFileFormat.NEW_LINE.getChars(0, NexusFileFormat.NEW_LINE.length(), buf, pos);
+		return pos + NexusFileFormat.NEW_LINE.length();
+	}
+	
+	/*
+	 * Whether formatDouble uses the fast method for this value, which writes at most
+	 * maxFastLength() chars. Otherwise it can write up to maxSlowLength().
+	 */
+	private boolean isFast(double value) {
+		return Double.isNaN(value) || Math.abs(value) * POWERS_OF_TEN[precision] < MAX_FAST;
+	}
+	
+	// sign, 16 integer digits, '.', precision digits
+	private int maxFastLength() { return precision + 18; }
+	
+	// sign, 309 integer digits (Double.MAX_VALUE), '.', precision digits. ("-Infinity" is shorter.)
+	private int maxSlowLength() { return precision + 311; }
+	
+	/*
+	 * Writes value to buf at pos with 'precision' decimal places. Returns new pos.
+	 * buf must have room for maxFastLength() chars, or maxSlowLength() if !isFast(value).
+	 */
+	int formatDouble(double value, char[] buf, int pos) {
+		if (Double.isNaN(value)) {
+			buf[pos++] = MISSING;
+			return pos;
+		}
+		if (!isFast(value)) {
+			// Too big (or infinite) for the fast method.
+			String str = String.format(Locale.ROOT, "%."+precision+"f", value);
+			str.getChars(0, str.length(), buf, pos);
+			return pos + str.length();
+		}
+		if (value < 0 || (value == 0 && 1/value < 0)) buf[pos++] = '-';
+		double scaled = Math.abs(value) * POWERS_OF_TEN[precision];
+		long digits = (long)(scaled + 0.5);
+		long pow = (long)POWERS_OF_TEN[precision];
+		pos = formatLong(digits / pow, buf, pos);
+		if (precision > 0) {
+			buf[pos++] = '.';
+			long fraction = digits % pow;
+			for (int i=precision-1; i>=0; i--) {
+				buf[pos+i] = (char)('0' + fraction%10);
+				fraction /= 10;
+			}
+			pos += precision;
+		}
+		return pos;
+	}
+	
+	private static int formatLong(long value, char[] buf, int pos) {
+		int nDigits = 1;
+		for (long v=value/10; v>0; v/=10) nDigits++;
+		for (int i=nDigits-1; i>=0; i--) {
+			buf[pos+i] = (char)('0' + value%10);
+			value /= 10;
+		}
+		return pos + nDigits;
+	}
+	
+	static DistanceMatrix asDistanceMatrix(final double[][] distances) {
+		return new DistanceMatrix() {
+			public int getNTax() { return distances.length; }
+			public double getDistance(int row, int col) { return distances[row][col]; }
+		};
+	}
+}
@@ -0,0 +1,282 @@
+package biojavaExtensions;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.biojavax.bio.phylo.io.nexus.DistancesBlock;
+import org.biojavax.bio.phylo.io.nexus.NexusComment;
+import org.biojavax.bio.phylo.io.nexus.NexusFileFormat;
+
+/**
+ * A DistancesBlock which stores the matrix as doubles rather than as Biojava's per-taxon 
+ * lists of String tokens: a flat n*n array for TRIANGLE=BOTH, otherwise a packed lower
+ * triangle (including the diagonal) of n*(n+1)/2 entries. UPPER triangle data is stored
+ * transposed, so getDistance(i,j) == getDistance(j,i) for either triangle.
+ * 
+ * DIMENSIONS and FORMAT must be set before the first matrix entry (as they are in a NEXUS file.)
+ * DIMENSIONS may leave out NTAX (the taxa are then those of the TAXA block): rows are then
+ * collected until finish() (called by ExtDistancesBlockBuilder.endBlock, or by the first read)
+ * and the matrix is allocated with NTAX = number of rows.
+ * Missing values are stored as NaN. Cells not supplied (e.g. the diagonal with NODIAGONAL) are 0.
+ * A row with more values than its width (NTAX, or its part of the triangle) is an error.
+ * 
+ * getMatrixData is still supported, but builds the String list on request.
+ * 
+ * Lack of generic type arguments is the fault of Biojava, hence @SuppressWarnings.
+ * @author woodhams
+ *
+ */
+public class ExtDistancesBlock extends DistancesBlock implements DistanceMatrix {
+	
+	private int nTax;
+	private boolean full;     // true: n*n array. false: packed lower triangle.
+	private boolean upper;    // data arrives as upper triangle rows
+	private double[] cells;
+	private TaxonRegistry taxa; // row number = taxon ID
+	private int[] nFilled;    // number of cells supplied so far for each row.
+	private List<double[]> pendingRows; // values of each row, while NTAX isn't known. null otherwise.
+	private int precision;    // decimal places used when writing
+	
+	public ExtDistancesBlock() {
+		super();
+		cells = null;
+		taxa = new TaxonRegistry();
+		precision = 6;
+	}
+	
+	/*
+	 * Decimal places used by writeBlockContents. Default 6.
+	 */
+	public void setPrecision(int precision) {
+		this.precision = precision;
+	}
+	
+	private void start() {
+		int n = this.getDimensionsNTax();
+		if (n > 0) {
+			allocate(n);
+		} else {
+			pendingRows = new ArrayList<double[]>();
+			nFilled = new int[16];
+		}
+	}
+	
+	private void allocate(int n) {
+		nTax = n;
+		String triangle = this.getTriangle();
+		full = "BOTH".equalsIgnoreCase(triangle);
+		upper = "UPPER".equalsIgnoreCase(triangle);
+		long size = full ? (long)nTax*nTax : (long)nTax*(nTax+1)/2;
+		if (size > Integer.MAX_VALUE) throw new IllegalArgumentException("Matrix of "+nTax+" taxa is too large");
+		cells = new double[(int)size];
+		nFilled = new int[nTax];
+	}
+	
+	private int cellIndex(int row, int col) {
+		if (full) return row*nTax + col;
+		int hi = Math.max(row, col);
+		int lo = Math.min(row, col);
+		return packedRowStart(hi) + lo;
+	}
+	
+	/*
+	 * Index of the first cell of row 'row' of the packed triangle. In long arithmetic, as
+	 * row*(row+1) overflows an int for rows past 46340, while allocate() allows up to 65535.
+	 */
+	private static int packedRowStart(int row) {
+		return (int)((long)row*(row+1)/2);
+	}
+	
+	/*
+	 * Column of the first value supplied for a row.
+	 */
+	private int firstCol(int row) {
+		return upper ? (this.isDiagonal() ? row : row+1) : 0;
+	}
+	
+	/*
+	 * Number of values a row can have.
+	 */
+	private int rowWidth(int row) {
+		if (full) return nTax;
+		if (upper) return nTax - firstCol(row);
+		return this.isDiagonal() ? row+1 : row;
+	}
+	
+	@Override
+	public void addMatrixEntry(String taxon) {
+		if (cells == null && pendingRows == null) start();
+		if (!taxa.contains(taxon)) {
+			if (pendingRows != null) {
+				pendingRows.add(new double[16]);
+				if (taxa.size() == nFilled.length) nFilled = Arrays.copyOf(nFilled, 2*nFilled.length);
+			} else if (taxa.size() >= nTax) {
+				throw new IllegalArgumentException("More than NTAX="+nTax+" matrix rows");
+			}
+			taxa.register(taxon);
+		}
+	}
+	
+	/**
+	 * Data must be a String token (a number or the missing symbol.) Anything else 
+	 * (e.g. a NexusComment within the matrix) is ignored.
+	 */
+	@Override
+	public void appendMatrixData(String taxon, Object data) {
+		if (!(data instanceof String)) return;
+		addMatrixEntry(taxon);
+		int row = taxa.getId(taxon);
+		String token = (String)data;
+		double value = token.equals(this.getMissing()) ? Double.NaN : Double.parseDouble(token);
+		int i = nFilled[row];
+		if (pendingRows != null) {
+			double[] values = pendingRows.get(row);
+			if (i == values.length) pendingRows.set(row, values = Arrays.copyOf(values, 2*i));
+			values[i] = value;
+		} else {
+			store(row, i, value);
+		}
+		nFilled[row] = i+1;
+	}
+	
+	/*
+	 * Store the i'th value supplied for a row.
+	 */
+	private void store(int row, int i, double value) {
+		if (i >= rowWidth(row)) {
+			throw new IllegalArgumentException("Matrix row of taxon '"+taxa.getLabel(row)+"' has more than "+rowWidth(row)+" values");
+		}
+		cells[cellIndex(row, firstCol(row)+i)] = value;
+	}
+	
+	/**
+	 * If DIMENSIONS had no NTAX, allocate the matrix for the rows read so far and fill it.
+	 * Later rows are then beyond NTAX, so this is for the end of the block (reads call it.)
+	 * Does nothing if NTAX was given.
+	 * @throws IllegalArgumentException if a row has too many values.
+	 */
+	public void finish() {
+		if (pendingRows == null) return;
+		List<double[]> rows = pendingRows;
+		int[] counts = nFilled;
+		pendingRows = null;
+		allocate(taxa.size());
+		for (int row=0; row<nTax; row++) {
+			double[] values = rows.get(row);
+			for (int i=0; i<counts[row]; i++) store(row, i, values[i]);
+			nFilled[row] = counts[row];
+		}
+	}
+	
+	public int getNTax() {
+		finish();
+		return nTax;
+	}
+	
+	public double getDistance(int row, int col) {
+		finish();
+		if (row < 0 || row >= nTax || col < 0 || col >= nTax) {
+			throw new IndexOutOfBoundsException("Distance ("+row+","+col+") outside "+nTax+"x"+nTax+" matrix");
+		}
+		return cells[cellIndex(row,col)];
+	}
+	
+	/**
+	 * @throws IllegalArgumentException if either taxon isn't in the matrix.
+	 */
+	public double getDistance(String taxon1, String taxon2) {
+		return getDistance(requireTaxon(taxon1), requireTaxon(taxon2));
+	}
+	
+	private int requireTaxon(String taxon) {
+		int row = taxa.getId(taxon);
+		if (row < 0) throw new IllegalArgumentException("Taxon '"+taxon+"' is not in the distance matrix");
+		return row;
+	}
+	
+	/**
+	 * @return row number of the taxon, or -1 if not present.
+	 */
+	public int getTaxonIndex(String taxon) {
+		return taxa.getId(taxon);
+	}
+	
+	/**
+	 * The matrix rows' taxa: row number is taxon ID. A read-only view, as the matrix can't
+	 * grow with the registry.
+	 */
+	public TaxonRegistry getTaxonRegistry() {
+		return TaxonRegistry.unmodifiable(taxa);
+	}
+	
+	public String getTaxon(int index) {
+		return taxa.getLabel(index);
+	}
+	
+	/**
+	 * Copies row 'row' of the (full, symmetric if triangular) matrix into dest,
+	 * which must have length at least NTAX. Returns dest.
+	 */
+	public double[] getRow(int row, double[] dest) {
+		finish();
+		if (full) {
+			System.arraycopy(cells, row*nTax, dest, 0, nTax);
+		} else {
+			// packed row 'row' holds columns 0..row, the rest come from later rows.
+			System.arraycopy(cells, packedRowStart(row), dest, 0, row+1);
+			for (int col=row+1; col<nTax; col++) dest[col] = cells[packedRowStart(col) + row];
+		}
+		return dest;
+	}
+	
+	public double[] getRow(int row) {
+		return getRow(row, new double[nTax]);
+	}
+	
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Collection getMatrixLabels() {
+		return taxa.getLabelList();
+	}
+	
+	/**
+	 * Builds the list of String tokens Biojava would have stored for this row.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Override
+	public List getMatrixData(String taxon) {
+		int row = getTaxonIndex(taxon);
+		if (row < 0) return null;
+		finish();
+		List data = new ArrayList();
+		for (int i=0; i<nFilled[row]; i++) {
+			double value = getDistance(row, firstCol(row)+i);
+			data.add(Double.isNaN(value) ? this.getMissing() : Double.toString(value));
+		}
+		return data;
+	}
+	
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Override
+	protected void writeBlockContents(Writer writer) throws IOException {
+		finish();
+		for (Object comment : this.getComments()) {
+			writer.write('\t');
+			((NexusComment)comment).writeObject(writer);
+			writer.write(NexusFileFormat.NEW_LINE);
+		}
+		DistancesWriter distancesWriter = new DistancesWriter();
+		distancesWriter.setPrecision(precision);
+		distancesWriter.setTriangle(full ? DistancesWriter.Triangle.BOTH : 
+			(upper ? DistancesWriter.Triangle.UPPER : DistancesWriter.Triangle.LOWER));
+		distancesWriter.setDiagonal(this.isDiagonal());
+		// As Biojava's DistancesBlock.writeBlockContents, so a NEWTAXA block round trips.
+		distancesWriter.setNewTaxa(this.isDimensionsNewTaxa());
+		distancesWriter.setTaxLabels(this.getTaxLabels());
+		distancesWriter.writeBlockContents(writer, taxa.getLabels(), this);
+	}
+}
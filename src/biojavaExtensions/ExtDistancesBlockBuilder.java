@@ -0,0 +1,77 @@
+package biojavaExtensions;
+
+import org.biojava.bio.seq.io.ParseException;
+import org.biojavax.bio.phylo.io.nexus.DistancesBlockBuilder;
+import org.biojavax.bio.phylo.io.nexus.NexusBlock;
+import org.biojavax.bio.phylo.io.nexus.NexusComment;
+
+/**
+ * Replacement for biojava's DistancesBlockBuilder which exists purely for 
+ * the purpose of using an ExtDistancesBlock instead of a DistancesBlock.
+ * Use with Biojava's DistancesBlockParser: 
+ *     new DistancesBlockParser(new ExtDistancesBlockBuilder())
+ * 
+ * @author woodhams
+ *
+ */
+public class ExtDistancesBlockBuilder extends DistancesBlockBuilder {
+	
+	private ExtDistancesBlock block;
+
+	protected void addComment(final NexusComment comment) {
+		this.block.addComment(comment);
+	}
+
+	protected NexusBlock startBlockObject() {
+		this.block = new ExtDistancesBlock();
+		return this.block;
+	}
+
+	public void setDimensionsNewTaxa(boolean dimensionsNewTaxa) {
+		this.block.setDimensionsNewTaxa(dimensionsNewTaxa);
+	}
+
+	public void setDimensionsNTax(int dimensionsNTax) {
+		this.block.setDimensionsNTax(dimensionsNTax);
+	}
+
+	public void setTriangle(String triangle) {
+		this.block.setTriangle(triangle);
+	}
+
+	public void setDiagonal(boolean diagonal) {
+		this.block.setDiagonal(diagonal);
+	}
+
+	public void setLabels(boolean labels) {
+		this.block.setLabels(labels);
+	}
+
+	public void setMissing(String missing) {
+		this.block.setMissing(missing);
+	}
+
+	public void setInterleaved(boolean interleaved) {
+		this.block.setInterleaved(interleaved);
+	}
+
+	public void addTaxLabel(String taxLabel) throws ParseException {
+		this.block.addTaxLabel(taxLabel);
+	}
+
+	public void addMatrixEntry(String taxa) {
+		this.block.addMatrixEntry(taxa);
+	}
+
+	public void appendMatrixData(String taxa, Object data) {
+		this.block.appendMatrixData(taxa, data);
+	}
+
+	/**
+	 * Allocates the matrix now if DIMENSIONS had no NTAX (see ExtDistancesBlock.finish.)
+	 */
+	public void endBlock() {
+		super.endBlock();
+		this.block.finish();
+	}
+}
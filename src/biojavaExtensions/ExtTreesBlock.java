@@ -2,10 +2,16 @@ package biojavaExtensions;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
+import org.biojava.bio.seq.io.ParseException;
 import org.biojavax.bio.phylo.io.nexus.NexusComment;
 import org.biojavax.bio.phylo.io.nexus.NexusFileFormat;
 import org.biojavax.bio.phylo.io.nexus.TreesBlock;
@@ -13,6 +19,16 @@ import org.biojavax.bio.phylo.io.nexus.TreesBlock;
 /**
  * Created to override TreesBlock.writeBlockContents()
  * 
+ * Also gives trees as CompactTrees (getCompactTree, getCompactTrees), made when first asked
+ * for and cached. Leaf IDs are from getTaxonRegistry(), which starts with the taxa of the
+ * TRANSLATE table in table order; taxa not in the table are added in the order they are
+ * first met (trees in block order, leaves in Newick order), however many threads parse.
+ * Changing a tree or the TRANSLATE table drops the cache. Callers get copies of the cached
+ * trees, so changing one doesn't change the block until it is passed to setCompactTree.
+ * 
+ * Not thread safe: the compact tree cache is a plain HashMap, so a block must not be used
+ * from several threads at once. (getCompactTrees parallelises internally.)
+ * 
  * Lack of generic type arguments is the fault of Biojava, hence @SuppressWarnings.
  * @author woodhams
  *
@@ -20,6 +36,160 @@ import org.biojavax.bio.phylo.io.nexus.TreesBlock;
 
 public class ExtTreesBlock extends TreesBlock {
 	
+	private TaxonRegistry taxa = null;                 // made when first needed, unless set
+	private Map<String,Integer> leafIds = null;        // translation code or taxon -> ID. Read only while parsing in parallel.
+	private Map<String,CompactTree> compactTrees = new HashMap<String,CompactTree>();
+	
+	/**
+	 * Use 'registry' for leaf IDs of compact trees (e.g. to share IDs with a DISTANCES block.)
+	 * Taxa in the TRANSLATE table, or in trees, which are not in it are added to it.
+	 */
+	public void setTaxonRegistry(TaxonRegistry registry) {
+		taxa = registry;
+		clearCompactTrees();
+	}
+	
+	public TaxonRegistry getTaxonRegistry() {
+		if (taxa == null) taxa = new TaxonRegistry();
+		return taxa;
+	}
+	
+	@Override
+	public void addTranslation(String label, String taxon) {
+		super.addTranslation(label, taxon);
+		clearCompactTrees();
+	}
+	
+	@Override
+	public void removeTranslation(String label) {
+		super.removeTranslation(label);
+		clearCompactTrees();
+	}
+	
+	@Override
+	public void addTree(String label, NewickTreeString tree) {
+		super.addTree(label, tree);
+		compactTrees.remove(label);
+	}
+	
+	@Override
+	public void removeTree(String label) {
+		super.removeTree(label);
+		compactTrees.remove(label);
+	}
+	
+	private void clearCompactTrees() {
+		leafIds = null;
+		if (compactTrees != null) compactTrees.clear(); // null if called during construction
+	}
+	
+	/*
+	 * Registers the TRANSLATE table's taxa, and maps both codes and taxa to IDs.
+	 */
+	@SuppressWarnings("unchecked")
+	private void prepareLeafIds() {
+		if (leafIds != null) return;
+		TaxonRegistry registry = getTaxonRegistry();
+		Map<String,String> translations = this.getTranslations();
+		Map<String,Integer> ids = new HashMap<String,Integer>(4*translations.size());
+		for (Map.Entry<String,String> entry : translations.entrySet()) {
+			ids.put(entry.getKey(), registry.register(entry.getValue()));
+		}
+		for (String taxon : translations.values()) ids.putIfAbsent(taxon, registry.getId(taxon));
+		leafIds = ids;
+	}
+	
+	/*
+	 * Registers leaves not in the TRANSLATE table, so single threaded only.
+	 */
+	private int leafId(String label) {
+		return leafIds.computeIfAbsent(label, taxon -> taxa.register(taxon));
+	}
+	
+	/**
+	 * @return a copy of the tree with this label as a CompactTree, or null if there is no such tree.
+	 */
+	public CompactTree getCompactTree(String label) throws ParseException {
+		CompactTree tree = compactTrees.get(label);
+		if (tree == null) {
+			NewickTreeString treeString = (NewickTreeString)this.getTree(label);
+			if (treeString == null) return null;
+			prepareLeafIds();
+			tree = CompactTree.parse(treeString.getTreeString(), this::leafId);
+			compactTrees.put(label, tree);
+		}
+		return tree.copy();
+	}
+	
+	/**
+	 * All trees as CompactTrees (copies), keyed and ordered by tree label. Trees not yet
+	 * cached are parsed in parallel on 'pool'. Their leaves are registered first, in a
+	 * sequential pass, so that IDs don't depend on thread scheduling.
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String,CompactTree> getCompactTrees(ForkJoinPool pool) throws ParseException {
+		Map<String,NewickTreeString> trees = this.getTrees();
+		final List<String> labels = new ArrayList<String>();
+		final List<String> treeStrings = new ArrayList<String>();
+		for (Map.Entry<String,NewickTreeString> entry : trees.entrySet()) {
+			if (!compactTrees.containsKey(entry.getKey())) {
+				labels.add(entry.getKey());
+				treeStrings.add(entry.getValue().getTreeString());
+			}
+		}
+		if (!labels.isEmpty()) {
+			prepareLeafIds();
+			for (String treeString : treeStrings) NewickLabels.forEachLeafLabel(treeString, this::leafId);
+			final Map<String,Integer> ids = leafIds; // now has every leaf, so is only read below
+			final CompactTree[] parsed = new CompactTree[labels.size()];
+			final ParseException[] errors = new ParseException[labels.size()];
+			// A parallel stream run from within a pool's task uses that pool.
+			pool.submit(() -> IntStream.range(0, parsed.length).parallel().forEach(i -> {
+				try {
+					parsed[i] = CompactTree.parse(treeStrings.get(i), ids::get);
+				} catch (ParseException e) {
+					errors[i] = e;
+				}
+			})).join();
+			for (int i=0; i<parsed.length; i++) {
+				if (errors[i] != null) throw new ParseException("Tree "+labels.get(i)+": "+errors[i].getMessage());
+				compactTrees.put(labels.get(i), parsed[i]);
+			}
+		}
+		Map<String,CompactTree> result = new LinkedHashMap<String,CompactTree>();
+		for (String label : trees.keySet()) result.put(label, compactTrees.get(label).copy());
+		return result;
+	}
+	
+	/**
+	 * Replace the tree with this label (or add a new one) by 'tree', written as Newick with 
+	 * leaves given by their TRANSLATE codes (or taxon labels, for taxa not in the table.)
+	 * The rooting and star of a tree being replaced are kept.
+	 */
+	@SuppressWarnings("unchecked")
+	public void setCompactTree(String label, CompactTree tree) {
+		prepareLeafIds();
+		TaxonRegistry registry = getTaxonRegistry();
+		String[] leafNames = registry.getLabels();
+		boolean[] coded = new boolean[leafNames.length];
+		for (Map.Entry<String,String> entry : ((Map<String,String>)this.getTranslations()).entrySet()) {
+			int id = registry.getId(entry.getValue());
+			if (!coded[id]) { // first code wins
+				leafNames[id] = entry.getKey();
+				coded[id] = true;
+			}
+		}
+		NewickTreeString old = (NewickTreeString)this.getTree(label);
+		NewickTreeString treeString = new NewickTreeString();
+		if (old != null) {
+			treeString.setRootType(old.getRootType());
+			treeString.setStarred(old.isStarred());
+		}
+		treeString.setTreeString(tree.toNewick(leafNames));
+		super.addTree(label, treeString);
+		compactTrees.put(label, tree.copy());
+	}
+	
 	@SuppressWarnings("rawtypes")
 	protected void writeBlockContents(Writer writer) throws IOException {
 		List comments = this.getComments(); //ArrayList
@@ -45,12 +215,36 @@ public class ExtTreesBlock extends TreesBlock {
 		}
 		// Write the block comments
 		for (int i=0; i<nBlockComments; i++) {
-			writer.append('\t');
-			((NexusComment) commentsIterator.next()).writeObject(writer);
-			writer.write(NexusFileFormat.NEW_LINE);
+			writeComment(writer, (NexusComment) commentsIterator.next());
 		}
 		
 		// Write the translations. (Fix a bug in Biojava when no translations were present)
+		writeTranslations(writer, translations);
+		
+		Iterator treesIterator = trees.entrySet().iterator();
+		while (treesIterator.hasNext()) {
+			if (commentPerTree) {
+				writeComment(writer, (NexusComment) commentsIterator.next());
+			}
+			@SuppressWarnings("unchecked")
+			Map.Entry<String,NewickTreeString> entry = (Map.Entry<String,NewickTreeString>)treesIterator.next();
+			writeTree(writer, entry.getKey(), entry.getValue());
+		} 
+	}
+	
+	/*
+	 * The methods below write one line (or section) of the block each. They are shared 
+	 * with StreamingTreesWriter so that a streamed block is formatted identically.
+	 */
+	
+	void writeComment(Writer writer, NexusComment comment) throws IOException {
+		writer.append('\t');
+		comment.writeObject(writer);
+		writer.write(NexusFileFormat.NEW_LINE);
+	}
+	
+	@SuppressWarnings("rawtypes")
+	void writeTranslations(Writer writer, Map translations) throws IOException {
 		if (translations.size()>0) {
 			writer.write("\tTRANSLATE" + NexusFileFormat.NEW_LINE);
 			for (final Iterator i = translations.entrySet().iterator(); i
@@ -67,26 +261,17 @@ public class ExtTreesBlock extends TreesBlock {
 				writer.write(NexusFileFormat.NEW_LINE);
 			}
 		}
-		
-		Iterator treesIterator = trees.entrySet().iterator();
-		while (treesIterator.hasNext()) {
-			if (commentPerTree) {
-				writer.append('\t');
-				((NexusComment) commentsIterator.next()).writeObject(writer);
-				writer.write(NexusFileFormat.NEW_LINE);
-			}
-			@SuppressWarnings("unchecked")
-			Map.Entry<String,NewickTreeString> entry = (Map.Entry<String,NewickTreeString>)treesIterator.next();
-			NewickTreeString treeStr = entry.getValue();
-			writer.write("\tTREE ");
-			if (treeStr.isStarred())
-				writer.write("* ");
-			this.writeToken(writer, "" + entry.getKey());
-			writer.write('=');
-			if (treeStr.getRootType() != null)
-				writer.write("[" + treeStr.getRootType() + "]");
-			this.writeToken(writer, treeStr.getTreeString());
-			writer.write(";" + NexusFileFormat.NEW_LINE);
-		} 
+	}
+	
+	void writeTree(Writer writer, String label, NewickTreeString treeStr) throws IOException {
+		writer.write("\tTREE ");
+		if (treeStr.isStarred())
+			writer.write("* ");
+		this.writeToken(writer, label);
+		writer.write('=');
+		if (treeStr.getRootType() != null)
+			writer.write("[" + treeStr.getRootType() + "]");
+		this.writeToken(writer, treeStr.getTreeString());
+		writer.write(";" + NexusFileFormat.NEW_LINE);
 	}
 }
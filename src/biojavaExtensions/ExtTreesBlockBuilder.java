@@ -1,7 +1,11 @@
 package biojavaExtensions;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.biojavax.bio.phylo.io.nexus.NexusBlock;
 import org.biojavax.bio.phylo.io.nexus.NexusComment;
+import org.biojavax.bio.phylo.io.nexus.TreesBlock;
 import org.biojavax.bio.phylo.io.nexus.TreesBlockBuilder;
 import org.biojavax.bio.phylo.io.nexus.TreesBlock.NewickTreeString;
 
@@ -9,25 +13,77 @@ import org.biojavax.bio.phylo.io.nexus.TreesBlock.NewickTreeString;
  * Replacement for biojava's TreesBlockBuilder which exists purely for 
  * the purpose of using an ExtTreesBlock instead of a TreesBlock.
  * 
+ * Two options (both off by default) for when building blocks from program data:
+ * translateTaxa - replace taxon labels in trees by numbers, and write a TRANSLATE table.
+ *                 (setTaxonRegistry does the same with numbers from a shared TaxonRegistry.)
+ * internTrees   - trees identical to one already added share its NewickTreeString object.
+ * 
  * @author woodhams
  *
  */
 public class ExtTreesBlockBuilder extends TreesBlockBuilder {
 	
 	private ExtTreesBlock block;
+	private TaxonRegistry taxa = null; // label -> number-1. null unless translating taxa
+	private boolean ownRegistry;       // taxa was made by setTranslateTaxa, so is per block
+	private Map<String,NewickTreeString> internedTrees = null; // null unless interning
+	private ParseMetricsListener metrics = null; // null unless collecting metrics
+	
+	/**
+	 * Set before adding any trees.
+	 */
+	public void setTranslateTaxa(boolean translate) {
+		taxa = translate ? new TaxonRegistry() : null;
+		ownRegistry = true;
+	}
+	
+	/**
+	 * Translate taxa using numbers from 'registry' (ID+1), registering any new taxa in it.
+	 * The TRANSLATE table lists every taxon in the registry, so if a TAXA block is made
+	 * from the same registry (NexusUtils.makeTaxaBlock) the numbers are TAXA block positions.
+	 * null turns translation off. Set before adding any trees.
+	 */
+	public void setTaxonRegistry(TaxonRegistry registry) {
+		taxa = registry;
+		ownRegistry = false;
+	}
+	
+	public void setInternTrees(boolean intern) {
+		internedTrees = intern ? new HashMap<String,NewickTreeString>() : null;
+	}
+	
+	/**
+	 * Report blocks, trees and comments to 'metrics'. May be null, for no metrics (the default.)
+	 */
+	public void setMetrics(ParseMetricsListener metrics) {
+		this.metrics = metrics;
+	}
 
 	protected void addComment(final NexusComment comment) {
+		if (metrics != null) metrics.comment();
 		this.block.addComment(comment);
 	}
 
 	protected NexusBlock startBlockObject() {
+		if (metrics != null) metrics.blockStarted(this.getBlockName());
 		this.block = new ExtTreesBlock();
 		this.resetStatus();
 		return this.block;
 	}
+	
+	public void endBlock() {
+		super.endBlock();
+		if (taxa != null) {
+			for (int id=0; id<taxa.size(); id++) {
+				this.block.addTranslation(Integer.toString(id+1), taxa.getLabel(id));
+			}
+		}
+		if (metrics != null) metrics.blockEnded(this.getBlockName());
+	}
 
 	private void resetStatus() {
-		// Nothing to do.
+		if (taxa != null && ownRegistry) taxa.clear();
+		if (internedTrees != null) internedTrees.clear();
 	}
 
 	public void addTranslation(String label, String taxa) {
@@ -35,6 +91,23 @@ public class ExtTreesBlockBuilder extends TreesBlockBuilder {
 	}
 
 	public void addTree(String label, NewickTreeString tree) {
+		if (taxa != null) {
+			NewickTreeString encoded = new TreesBlock.NewickTreeString();
+			encoded.setRootType(tree.getRootType());
+			encoded.setStarred(tree.isStarred());
+			encoded.setTreeString(NewickLabels.encode(tree.getTreeString(), taxa));
+			tree = encoded;
+		}
+		if (internedTrees != null) {
+			String key = tree.getRootType() + (tree.isStarred() ? "*" : " ") + tree.getTreeString();
+			NewickTreeString existing = internedTrees.get(key);
+			if (existing == null) {
+				internedTrees.put(key, tree);
+			} else {
+				tree = existing;
+			}
+		}
 		this.block.addTree(label, tree);
+		if (metrics != null) metrics.tree();
 	}
 }
@@ -0,0 +1,47 @@
+package biojavaExtensions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a byte range of a file using positional reads, so several of these can read
+ * from the same FileChannel at once (e.g. from different threads.)
+ * Closing this stream does not close the channel.
+ * 
+ * @author woodhams
+ *
+ */
+class FileRangeInputStream extends InputStream {
+	
+	private FileChannel channel;
+	private long position;
+	private long end;
+	
+	FileRangeInputStream(FileChannel channel, long start, long end) {
+		this.channel = channel;
+		this.position = start;
+		this.end = end;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return (read(b,0,1) == 1) ? (b[0] & 0xff) : -1;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (position >= end) return -1;
+		len = (int)Math.min(len, end-position);
+		int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+		if (n > 0) position += n;
+		return n;
+	}
+	
+	@Override
+	public int available() {
+		return (int)Math.min(Integer.MAX_VALUE, end-position);
+	}
+}
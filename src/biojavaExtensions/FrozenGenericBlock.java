@@ -0,0 +1,87 @@
+package biojavaExtensions;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable GenericBlock, made by GenericBlock.freeze(). Its entries are held in an array
+ * and its key index is built once, so lookups need no locks and it can be shared freely
+ * between threads. It has no methods to change it, and its entries throw
+ * UnsupportedOperationException if reformatted. It shares only the reads of
+ * AbstractGenericBlock with GenericBlock, so carries none of GenericBlock's state.
+ *
+ * To change it, thaw() it to get a mutable copy, change that, and freeze it again.
+ *
+ * @author woodhams
+ *
+ */
+public final class FrozenGenericBlock extends AbstractGenericBlock {
+	private final GenericNexusStuff[] entries;
+	private final Map<String,GenericNexusStuff> keyIndex; // normalized key -> first field with that key
+
+	/*
+	 * 'entries' must be frozen copies, not shared with any mutable block. 'validKeys' are
+	 * already normalized, which normalizing again doesn't change.
+	 */
+	FrozenGenericBlock(String blockName, Set<String> validKeys, boolean caseInsensitiveKeys, GenericNexusStuff[] entries) {
+		super(blockName,validKeys,caseInsensitiveKeys);
+		this.entries = entries;
+		Map<String,GenericNexusStuff> index = new HashMap<String,GenericNexusStuff>(2*entries.length);
+		for (GenericNexusStuff stuff : entries) {
+			if (stuff.isField()) index.putIfAbsent(normalize(stuff.getKey()), stuff);
+		}
+		keyIndex = index;
+	}
+
+	/**
+	 * A mutable copy of this block.
+	 */
+	public GenericBlock thaw() {
+		GenericBlock block = new GenericBlock(this.getBlockName(), getValidKeys(), hasCaseInsensitiveKeys());
+		for (GenericNexusStuff stuff : entries) block.addStuff(new GenericNexusStuff(stuff, false));
+		return block;
+	}
+
+	/**
+	 * Already frozen, so returns this.
+	 */
+	@Override
+	public FrozenGenericBlock freeze() {
+		return this;
+	}
+
+	/**
+	 * Number of entries (fields, comments and whitespace.)
+	 */
+	public int size() {
+		return entries.length;
+	}
+
+	public GenericNexusStuff getStuff(int i) {
+		return entries[i];
+	}
+
+	@Override
+	public Iterator<GenericNexusStuff> stuffIterator() {
+		return new Iterator<GenericNexusStuff>() {
+			private int next = 0;
+			public boolean hasNext() { return next < entries.length; }
+			public GenericNexusStuff next() {
+				if (next >= entries.length) throw new NoSuchElementException();
+				return entries[next++];
+			}
+		};
+	}
+
+	@Override
+	public GenericNexusStuff getField(String key) {
+		return keyIndex.get(normalize(key));
+	}
+
+	@Override
+	public boolean hasKey(String key) {
+		return keyIndex.containsKey(normalize(key));
+	}
+}
@@ -1,17 +1,21 @@
 package biojavaExtensions;
-import java.io.IOException;
-import java.io.Writer;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.stream.Stream;
 
 import org.biojava.bio.seq.io.ParseException;
-import org.biojavax.bio.phylo.io.nexus.NexusBlock;
 import org.biojavax.bio.phylo.io.nexus.NexusComment;
 
 /**
  * Loosely based on Biojava 1.8.4 NexusFileBuilder.UnknownBlockParser.UnknownBlockBuilder.UnknownBlock
  * 
+ * The mutable block: reads (getValueTrimmed, getInt etc.) are in AbstractGenericBlock,
+ * shared with FrozenGenericBlock.
+ * 
  * @author woodhams
  *
  */
@@ -20,16 +24,23 @@ import org.biojavax.bio.phylo.io.nexus.NexusComment;
  * Specifying a list of valid keys is optional: if no set of
  * valid keys passed to constructor, and addValidKey never called,
  * all keys are valid. 
- * Key names are case sensitive and whitespace sensitive. 
- * (Possible TODO: add a case-sensitivity option)
+ * Key names are whitespace sensitive, and case sensitive unless the block was created
+ * with caseInsensitiveKeys (in which case valid keys are also matched ignoring case.)
+ * Lookups by key go through a key->field index, kept in step with addField/addStuff/removeField,
+ * so they don't scan the block. With duplicate keys, the first field of that name is found.
+ * Removal (removeField, or through stuffIterator) is still O(n) in the number of entries:
+ * the entries Vector shifts everything after the removed field, removeField finds the
+ * field's position by scanning up to it, and a later field of the same name, if any, is
+ * found by scanning on from there. Blocks are small, and rarely edited after parsing, so
+ * this is cheaper overall than keeping positions up to date on every removal.
  * 
  * TODO: I'm not happy with how checking validity of keys works. Current
  * method requires try/catch on adding fields, even when there is no
  * validity checking going on.
  */
-public class GenericBlock extends NexusBlock.Abstract {
+public class GenericBlock extends AbstractGenericBlock {
 	private Vector<GenericNexusStuff> entries;
-	private Set<String> validKeys = null;
+	private Map<String,GenericNexusStuff> keyIndex; // normalized key -> first field with that key
 	
 	/*
 	public void addValidKey(String key) {
@@ -39,13 +50,59 @@ public class GenericBlock extends NexusBlock.Abstract {
 	 */
 	
 	public GenericBlock(String blockName) {
-		super(blockName);
-		entries = new Vector<GenericNexusStuff>();
+		this(blockName,null,false);
 	}
 	
 	public GenericBlock(String blockName, Set<String> validKeys) {
-		this(blockName);
-		this.validKeys = validKeys;
+		this(blockName,validKeys,false);
+	}
+	
+	/**
+	 * @param blockName
+	 * @param validKeys - may be null, in which case all keys are valid.
+	 * @param caseInsensitiveKeys
+	 */
+	public GenericBlock(String blockName, Set<String> validKeys, boolean caseInsensitiveKeys) {
+		super(blockName,validKeys,caseInsensitiveKeys);
+		entries = new Vector<GenericNexusStuff>();
+		keyIndex = new HashMap<String,GenericNexusStuff>();
+	}
+	
+	/**
+	 * An immutable copy of this block, which any number of threads can read without locking.
+	 * Later changes to this block don't affect the copy. To change a frozen block, thaw() it,
+	 * change the thawed copy, then freeze that (i.e. copy-on-write.)
+	 */
+	@Override
+	public FrozenGenericBlock freeze() {
+		GenericNexusStuff[] stuff = entries.toArray(new GenericNexusStuff[0]); // atomic, as entries is a Vector
+		for (int i=0; i<stuff.length; i++) stuff[i] = new GenericNexusStuff(stuff[i], true);
+		return new FrozenGenericBlock(this.getBlockName(), getValidKeys(), hasCaseInsensitiveKeys(), stuff);
+	}
+	
+	private void index(GenericNexusStuff stuff) {
+		if (stuff.isField()) {
+			String key = normalize(stuff.getKey());
+			if (!keyIndex.containsKey(key)) keyIndex.put(key, stuff);
+		}
+	}
+	
+	/*
+	 * After removal of field 'removed' from 'position', if the index pointed at it, point it
+	 * at the next field of the same name (if any.) As 'removed' was the first of that name,
+	 * the scan starts at 'position'.
+	 */
+	private void reindex(GenericNexusStuff removed, int position) {
+		String normalizedKey = normalize(removed.getKey());
+		if (keyIndex.get(normalizedKey) != removed) return; // a later duplicate was removed
+		keyIndex.remove(normalizedKey);
+		for (int i=position; i<entries.size(); i++) {
+			GenericNexusStuff stuff = entries.get(i);
+			if (stuff.isField() && normalize(stuff.getKey()).equals(normalizedKey)) {
+				keyIndex.put(normalizedKey, stuff);
+				return;
+			}
+		}
 	}
 	
 	public void addComment(NexusComment comment) {
@@ -58,12 +115,14 @@ public class GenericBlock extends NexusBlock.Abstract {
 	
 	public void addStuff(GenericNexusStuff stuff) {
 		entries.add(stuff);
+		index(stuff);
 	}
 	
 	public void addField(String key, String separator, String value) throws ParseException {
-		if (validKeys!=null && !validKeys.contains(key)) 
+		Set<String> validKeys = getValidKeys();
+		if (validKeys!=null && !validKeys.contains(normalize(key))) 
 			throw new ParseException("In block "+this.getBlockName()+", found invalid field name '"+key+"'");
-		entries.add(new GenericNexusStuff(key,separator,value));
+		addStuff(new GenericNexusStuff(key,separator,value));
 	}
 	
 	/*
@@ -73,14 +132,25 @@ public class GenericBlock extends NexusBlock.Abstract {
 	 * Iterator<GenericNexusStuff> stuffIterator
 	 * Iterator<NexusComment> commentIterator
 	 */
+	@Override
 	public Iterator<GenericNexusStuff> stuffIterator() {
-		return entries.listIterator();
+		final ListIterator<GenericNexusStuff> iterator = entries.listIterator();
+		// Wrapped so that removal through the iterator keeps the key index up to date.
+		return new Iterator<GenericNexusStuff>() {
+			private GenericNexusStuff last;
+			public boolean hasNext() { return iterator.hasNext(); }
+			public GenericNexusStuff next() { return last = iterator.next(); }
+			public void remove() {
+				iterator.remove();
+				if (last.isField()) reindex(last, iterator.nextIndex());
+			}
+		};
 	}
 	
 	/**
 	 * Returns true if it was able to find and remove a field with name <key>.
 	 * If whitespace immediately precedes the removed field, the whitespace
-	 * is also removed.
+	 * is also removed. O(n) in the number of entries (see class comment.)
 	 * @param key
 	 * @return
 	 */
@@ -89,10 +159,11 @@ public class GenericBlock extends NexusBlock.Abstract {
 		if (index == -1) {
 			return false;
 		} else {
-			entries.remove(index);
+			GenericNexusStuff removed = entries.remove(index);
 			if (index>0 && entries.get(index-1).isWhite()) {
-				entries.remove(index-1);
+				entries.remove(--index);
 			}
+			reindex(removed, index);
 		}
 		return true;
 	}
@@ -103,33 +174,33 @@ public class GenericBlock extends NexusBlock.Abstract {
 	 * @return
 	 */
 	private int keyIndex(String key) {
-		for (int i=0; i<entries.size(); i++) {
-			GenericNexusStuff stuff = entries.get(i);
-			if (stuff.isField() && stuff.getKey().equals(key)) {
-				return i;
-			}
-		}
-		return -1;
+		GenericNexusStuff stuff = getField(key);
+		return (stuff == null) ? -1 : entries.indexOf(stuff);
 	}
 	
-	public boolean hasKey(String key) {
-		return (keyIndex(key)>=0);
+	@Override
+	public GenericNexusStuff getField(String key) {
+		return keyIndex.get(normalize(key));
 	}
 	
-	public String getValueTrimmed(String key) {
-		return getValueTrimmed(key,null);
+	@Override
+	public boolean hasKey(String key) {
+		return keyIndex.containsKey(normalize(key));
 	}
 	
-	public String getValueTrimmed(String key, String defaultValue) {
-		int index = keyIndex(key);
-		String returnValue= (index >= 0) ? entries.get(index).getValue().trim() : defaultValue;
-		return returnValue;
+	/**
+	 * Reformat (see GenericNexusStuff.reformat) every field of the block.
+	 */
+	public void reformatFields() {
+		reformatFields(false);
 	}
 	
-	public void writeBlockContents(final Writer writer)
-			throws IOException {
-		for (GenericNexusStuff stuff : entries) {
-			stuff.writeObject(writer);
-		}
+	/**
+	 * @param parallel - if true, fields are reformatted in parallel (on the common ForkJoinPool.)
+	 * Worthwhile only for blocks with many fields or very long values.
+	 */
+	public void reformatFields(boolean parallel) {
+		Stream<GenericNexusStuff> stream = parallel ? entries.parallelStream() : entries.stream();
+		stream.filter(stuff -> stuff.isField()).forEach(stuff -> stuff.reformat());
 	}
 }
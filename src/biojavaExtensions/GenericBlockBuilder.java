@@ -26,9 +26,9 @@ import org.biojavax.bio.phylo.io.nexus.NexusComment;
 
 public class GenericBlockBuilder extends NexusBlockBuilder.Abstract {
 
-	private StringBuffer keyBuffer;
+	private StringBuilder keyBuffer;
 	private String separator;
-	private StringBuffer valueBuffer;
+	private StringBuilder valueBuffer;
 	private boolean inWhiteSpace;
 	private boolean inKeyName;
 	private boolean inValue;
@@ -36,6 +36,8 @@ public class GenericBlockBuilder extends NexusBlockBuilder.Abstract {
 	private boolean insertCommentsIntoValues; // if true, stringify comments which occur in field values and insert them.
 	private boolean blockJustStarted; // Nasty hack to avoid extra "\n" at start of block.
 	private Set<String> validKeys;
+	private boolean caseInsensitiveKeys;
+	private ParseMetricsListener metrics; // null unless collecting metrics
 	
 	public GenericBlockBuilder() {
 		this(false);
@@ -49,9 +51,9 @@ public class GenericBlockBuilder extends NexusBlockBuilder.Abstract {
 	 * @param validKeys - may be null, in which case all keys are valid.
 	 */
 	public GenericBlockBuilder(boolean insertComments, Set<String> validKeys) {
-		keyBuffer = new StringBuffer();
+		keyBuffer = new StringBuilder();
 		separator = null;
-		valueBuffer = new StringBuffer();
+		valueBuffer = new StringBuilder();
 		inWhiteSpace = false;
 		inKeyName = false;
 		inValue = false;
@@ -59,10 +61,20 @@ public class GenericBlockBuilder extends NexusBlockBuilder.Abstract {
 		insertCommentsIntoValues = insertComments;
 		blockJustStarted = true;
 		this.validKeys= validKeys; 
+		caseInsensitiveKeys = false;
+		metrics = null;
 	}
 	
 	public void setInsertComments() { insertCommentsIntoValues = true; }
 	public void unsetInsertComments() {insertCommentsIntoValues = false; }
+	/*
+	 * Applies to blocks started after the call.
+	 */
+	public void setCaseInsensitiveKeys(boolean caseInsensitive) { caseInsensitiveKeys = caseInsensitive; }
+	/*
+	 * May be null, for no metrics (the default.)
+	 */
+	public void setMetrics(ParseMetricsListener metrics) { this.metrics = metrics; }
 	
 	private void storeLastObject() throws ParseException {
 		if (inWhiteSpace) {
@@ -70,38 +82,80 @@ public class GenericBlockBuilder extends NexusBlockBuilder.Abstract {
 			inWhiteSpace = false;
 			valueBuffer.setLength(0);
 		} else if (inValue) {
-			((GenericBlock)this.getNexusBlock()).addField(keyBuffer.toString().trim(), separator, valueBuffer.toString());
+			((GenericBlock)this.getNexusBlock()).addField(trimmedKey(), separator, valueBuffer.toString());
+			if (metrics != null) metrics.field();
 			inValue = false;
 			keyBuffer.setLength(0);
 			valueBuffer.setLength(0);
 		} else if (inKeyName) {
-			((GenericBlock)this.getNexusBlock()).addField(keyBuffer.toString().trim(), "", "");
+			((GenericBlock)this.getNexusBlock()).addField(trimmedKey(), "", "");
+			if (metrics != null) metrics.field();
 			inKeyName = false;
 			keyBuffer.setLength(0);
 		}
 		blockJustStarted = false;
 	}
 	
+	/*
+	 * Equivalent to keyBuffer.toString().trim(), but makes only one String.
+	 */
+	private String trimmedKey() {
+		int start = 0;
+		int end = keyBuffer.length();
+		while (start < end && keyBuffer.charAt(start) <= ' ') start++;
+		while (end > start && keyBuffer.charAt(end-1) <= ' ') end--;
+		return keyBuffer.substring(start, end);
+	}
+	
 	/*
 	 * addWhiteSpace, addKey, addSeparator, addValue are for use by a parser,
 	 * adding one token at a time.
+	 * 
+	 * The (CharSequence, start, end) and (char[], offset, length) versions add part of a 
+	 * token without the caller having to make a String of it. Characters are copied into 
+	 * the builder's buffers, so the caller may reuse the CharSequence or array. Strings are
+	 * only made when a whole field (or run of whitespace) is stored in the block.
 	 */
 	
 	public void addWhiteSpace(String white) throws ParseException {
-		if (blockJustStarted && white.equals("\n")) {
+		addWhiteSpace(white,0,white.length());
+	}
+	
+	public void addWhiteSpace(CharSequence white, int start, int end) throws ParseException {
+		if (blockJustStarted && end-start==1 && white.charAt(start)=='\n') {
 			// Nasty hack to avoid extra newline at the start of the block
 			blockJustStarted = false;
 			return; 
 		}
 		if (!inWhiteSpace) storeLastObject();
 		inWhiteSpace = true;
-		valueBuffer.append(white);
+		valueBuffer.append(white,start,end);
+	}
+	
+	public void addWhiteSpace(char[] white, int offset, int length) throws ParseException {
+		if (blockJustStarted && length==1 && white[offset]=='\n') {
+			blockJustStarted = false;
+			return; 
+		}
+		if (!inWhiteSpace) storeLastObject();
+		inWhiteSpace = true;
+		valueBuffer.append(white,offset,length);
 	}
 	
 	public void addKey(String key) throws ParseException {
+		addKey(key,0,key.length());
+	}
+	
+	public void addKey(CharSequence key, int start, int end) throws ParseException {
+		if (!inKeyName) storeLastObject();
+		inKeyName = true;
+		keyBuffer.append(key,start,end);
+	}
+	
+	public void addKey(char[] key, int offset, int length) throws ParseException {
 		if (!inKeyName) storeLastObject();
 		inKeyName = true;
-		keyBuffer.append(key);
+		keyBuffer.append(key,offset,length);
 	}
 	
 	public void addSeparator(String separator) throws ParseException {
@@ -112,8 +166,17 @@ public class GenericBlockBuilder extends NexusBlockBuilder.Abstract {
 	}
 	
 	public void addValue(String value) throws ParseException {
+		addValue(value,0,value.length());
+	}
+	
+	public void addValue(CharSequence value, int start, int end) throws ParseException {
+		if (!inValue) throw new ParseException("Adding value to nonexistant field");
+		valueBuffer.append(value,start,end);
+	}
+	
+	public void addValue(char[] value, int offset, int length) throws ParseException {
 		if (!inValue) throw new ParseException("Adding value to nonexistant field");
-		valueBuffer.append(value);
+		valueBuffer.append(value,offset,length);
 	}
 	
 	/*
@@ -162,9 +225,11 @@ public class GenericBlockBuilder extends NexusBlockBuilder.Abstract {
 			// endBlock can't have 'throw' clause due to inheritance. 
 			throw new RuntimeException(e.getMessage());
 		}
+		if (metrics != null) metrics.blockEnded(this.getBlockName());
 	}
 
 	protected void addComment(final NexusComment comment) {
+		if (metrics != null) metrics.comment();
 		if (insertCommentsIntoValues && inValue) {
 			StringWriter sw = new StringWriter();
 			try {
@@ -181,7 +246,8 @@ public class GenericBlockBuilder extends NexusBlockBuilder.Abstract {
 
 	@Override
 	public NexusBlock startBlockObject() {
-		return new GenericBlock(this.getBlockName(),validKeys);
+		if (metrics != null) metrics.blockStarted(this.getBlockName());
+		return new GenericBlock(this.getBlockName(),validKeys,caseInsensitiveKeys);
 	}
 
 }
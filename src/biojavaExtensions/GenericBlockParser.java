@@ -15,6 +15,7 @@ public class GenericBlockParser extends NexusBlockParser.Abstract {
 //	private boolean inWhitespace;
 	private boolean inFieldName;
 	private boolean inFieldContents;
+	private ParseMetricsListener metrics; // null unless collecting metrics
 	
 	public GenericBlockParser() {
 		this(false,null);
@@ -23,10 +24,23 @@ public class GenericBlockParser extends NexusBlockParser.Abstract {
 		this(insertCommentsIntoValues,null);
 	}
 	public GenericBlockParser(boolean insertCommentsIntoValues, Set<String> validKeys) {
+		this(insertCommentsIntoValues,validKeys,false);
+	}
+	public GenericBlockParser(boolean insertCommentsIntoValues, Set<String> validKeys, boolean caseInsensitiveKeys) {
 		super(new GenericBlockBuilder(insertCommentsIntoValues,validKeys));
+		((GenericBlockBuilder)this.getBlockListener()).setCaseInsensitiveKeys(caseInsensitiveKeys);
 		resetStatus();
 	}
 
+	/**
+	 * Report tokens (and, via the builder, blocks, fields and comments) to 'metrics'.
+	 * May be null, for no metrics (the default.)
+	 */
+	public void setMetrics(ParseMetricsListener metrics) {
+		this.metrics = metrics;
+		((GenericBlockBuilder)this.getBlockListener()).setMetrics(metrics);
+	}
+
 	public void resetStatus() {
 //		inWhitespace = false;
 		inFieldName = false;
@@ -38,6 +52,23 @@ public class GenericBlockParser extends NexusBlockParser.Abstract {
 	}
 
 	public void parseToken(final String token) throws ParseException {
+		parseToken((CharSequence)token);
+	}
+	
+	/**
+	 * As parseToken(String), but the token can be any CharSequence, e.g. a slice of a 
+	 * file being read by MappedNexusTokenizer. The token is not retained, so the caller 
+	 * may reuse the CharSequence object. No Strings are made from the token: its 
+	 * characters are appended to the builder's buffers.
+	 * @param token
+	 * @throws ParseException
+	 */
+	public void parseToken(final CharSequence token) throws ParseException {
+		if (metrics != null) metrics.token(token.length());
+		handleToken(token);
+	}
+	
+	private void handleToken(final CharSequence token) throws ParseException {
 		GenericBlockBuilder builder = (GenericBlockBuilder)this.getBlockListener();
 		
 		/*
@@ -51,52 +82,67 @@ public class GenericBlockParser extends NexusBlockParser.Abstract {
 		}
 		
 		if (inFieldName) {
-			if (token.equals("\n")) {
+			if (token.length()==1 && token.charAt(0)=='\n') {
 				// '\n' will always be a token by itself
-				builder.addSeparator(token);
+				builder.addSeparator("\n");
 				inFieldName = false;
 				inFieldContents = true;
 			} else {
-				int equalsPos = token.indexOf('=');
+				int equalsPos = indexOf(token,'=');
 				if (equalsPos>=0) {
 					// '=' might be part of a larger string
 					//String before = (equalsPos==0) ? "" : token.substring(0, equalsPos-1);
 					//String after = (equalsPos+1==token.length()) ? "" : token.substring(equalsPos+1);
-					String before = token.substring(0, equalsPos);
-					String after  = token.substring(equalsPos+1);
-					builder.addKey(before);
+					builder.addKey(token, 0, equalsPos);
 					builder.addSeparator("=");
-					builder.addValue(after);
+					builder.addValue(token, equalsPos+1, token.length());
 					inFieldName = false;
 					inFieldContents = true;
 				} else {
-					builder.addKey(token);
+					builder.addKey(token, 0, token.length());
 				}
 			}
-		} else if (token.trim().length()==0) {
+		} else if (isWhite(token)) {
 			// Add whitespace to whatever we're currently building. 
 			// Case of building inFieldName already handled above 
 			if (inFieldContents) {
-				builder.addValue(token);
+				builder.addValue(token, 0, token.length());
 			} else {
-				builder.addWhiteSpace(token);
+				builder.addWhiteSpace(token, 0, token.length());
 //				inWhitespace = true;
 			}
 		} else {
 			// Non-whitespace, non-separator and not inFieldName
 			if (inFieldContents) {
-				builder.addValue(token);
+				builder.addValue(token, 0, token.length());
 			} else {
-				if (token.indexOf('=')>=0) {
+				if (indexOf(token,'=')>=0) {
 //					inWhitespace = false;
 					inFieldName = true;
-					parseToken(token); // reparse knowing we have a field name. Saves some cut-and-paste program editing.
+					handleToken(token); // reparse knowing we have a field name. Saves some cut-and-paste program editing.
 				} else {
-					builder.addKey(token);
+					builder.addKey(token, 0, token.length());
 //					inWhitespace = false;
 					inFieldName = true;
 				}
 			}
 		}
 	}
+	
+	private static int indexOf(CharSequence token, char c) {
+		for (int i=0; i<token.length(); i++) {
+			if (token.charAt(i)==c) return i;
+		}
+		return -1;
+	}
+	
+	/*
+	 * Equivalent to token.trim().length()==0
+	 */
+	private static boolean isWhite(CharSequence token) {
+		for (int i=0; i<token.length(); i++) {
+			if (token.charAt(i) > ' ') return false;
+		}
+		return true;
+	}
 }
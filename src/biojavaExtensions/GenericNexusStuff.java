@@ -2,6 +2,12 @@ package biojavaExtensions;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.biojava.bio.seq.io.ParseException;
 
 import org.biojavax.bio.phylo.io.nexus.NexusComment;
 
@@ -19,11 +25,17 @@ import org.biojavax.bio.phylo.io.nexus.NexusComment;
 // TODO: Often code specifically wants a field, so should create subclasses.
 public class GenericNexusStuff {
 	public enum stuffType {WHITE, COMMENT, FIELD};
-	public stuffType type;
-	private NexusComment comment; // null unless type==COMMENT 
-	private String value;  // null if type==COMMENT
-	private String key; // null unless type==FIELD
-	private String separator; // null unless type==FIELD;
+	public final stuffType type; // final, like all but 'value', so a frozen entry can't change
+	private final NexusComment comment; // null unless type==COMMENT. Never handed out if frozen.
+	private String value;  // null if type==COMMENT. Only changed by reformat(), which a frozen entry refuses.
+	private final String key; // null unless type==FIELD
+	private final String separator; // null unless type==FIELD;
+	private final boolean frozen; // true for the entries of a FrozenGenericBlock
+	// Typed values parsed so far, one slot per type (INT etc.), or null if none. Copy-on-write,
+	// and never handed out mutable, so frozen copies and concurrent readers can share it.
+	private volatile Object[] parsed;
+	private static final int INT = 0, LONG = 1, DOUBLE = 2, BOOLEAN = 3, INT_ARRAY = 4, DOUBLE_ARRAY = 5, STRING_LIST = 6;
+	private static final int N_TYPES = 7;
 	
 	public GenericNexusStuff(NexusComment comment) {
 		type = stuffType.COMMENT;
@@ -31,6 +43,7 @@ public class GenericNexusStuff {
 		value = null;
 		key = null;
 		separator = null;
+		frozen = false;
 	}
 	
 	public GenericNexusStuff(String whitespace) {
@@ -39,6 +52,7 @@ public class GenericNexusStuff {
 		value = whitespace;
 		key = null;
 		separator = null;
+		frozen = false;
 	}
 	
 	public GenericNexusStuff(String key, String separator, String value) {
@@ -47,22 +61,256 @@ public class GenericNexusStuff {
 		this.key = key;
 		this.separator = separator;
 		this.value = value;
+		frozen = false;
+	}
+	
+	/*
+	 * Copy, for GenericBlock.freeze and FrozenGenericBlock.thaw. A frozen copy can't be reformatted.
+	 * The comment (mutable) is copied too, so the copies share nothing mutable. (The other
+	 * fields are final or immutable, and 'parsed' is copy-on-write.)
+	 */
+	GenericNexusStuff(GenericNexusStuff stuff, boolean frozen) {
+		type = stuff.type;
+		comment = (stuff.comment == null) ? null : copy(stuff.comment);
+		value = stuff.value;
+		key = stuff.key;
+		separator = stuff.separator;
+		parsed = stuff.parsed;
+		this.frozen = frozen;
 	}
 	
 	/**
 	 * This works on fields only.
 	 * Strip out superfluous whitespace from 'value',
 	 * precede each separate line by two tabs. 
+	 * @throws UnsupportedOperationException if this belongs to a FrozenGenericBlock.
 	 */
 	public void reformat() {
-		// Would be more efficient if I figured out how to use a StringBuffer for this instead.
-		String temp = value.replaceAll("\t", ""); // strip all tabs
-		temp = temp.replaceAll("  +", " "); // collapse multiple spaces into one
-		temp = temp.replaceAll("\n ", "\n"); // strip spaces after newline
-		temp = temp.replaceAll("\n", "\n\t\t"); // Add two tabs after newline
-		if (separator.equals("\n")) {temp = "\t\t"+temp;} // optional two tabs at start
-		temp = temp.replace("\t\t$", "\t"); // Reduce indent on end of multi-line value.
-		value = temp;
+		if (frozen) throw new UnsupportedOperationException("Entries of a frozen block can't be reformatted");
+		value = reformat(value, separator.equals("\n"));
+		parsed = null;
+	}
+	
+	/**
+	 * Single pass version of what used to be a chain of regex replacements:
+	 *   +  all tabs are removed
+	 *   +  a run of spaces becomes one space, or nothing if it directly follows a newline
+	 *   +  each newline is followed by two tabs
+	 *   +  if indentFirstLine, the value is preceded by two tabs
+	 *   +  if the result ends in two tabs (i.e. the value ended with a newline) the last 
+	 *      is dropped, so the terminating ';' is indented by one tab.
+	 * (The old code's final step, replace("\t\t$","\t"), was a literal string replacement
+	 * so never matched. The last rule is what it was meant to do.)
+	 * e.g. " a\t  b \n  c\n" becomes " a b \n\t\tc\n\t"
+	 */
+	static String reformat(String value, boolean indentFirstLine) {
+		int n = value.length();
+		StringBuilder out = new StringBuilder(n+16);
+		if (indentFirstLine) out.append("\t\t");
+		boolean afterNewline = false;
+		boolean pendingSpace = false;
+		for (int i=0; i<n; i++) {
+			char c = value.charAt(i);
+			if (c == '\t') {
+				continue;
+			} else if (c == ' ') {
+				pendingSpace = !afterNewline;
+				continue;
+			}
+			if (pendingSpace) {
+				out.append(' ');
+				pendingSpace = false;
+			}
+			if (c == '\n') {
+				out.append("\n\t\t");
+				afterNewline = true;
+			} else {
+				out.append(c);
+				afterNewline = false;
+			}
+		}
+		if (pendingSpace) out.append(' ');
+		int length = out.length();
+		if (length >= 2 && out.charAt(length-1) == '\t' && out.charAt(length-2) == '\t') out.setLength(length-1);
+		return out.toString();
+	}
+	
+	/*
+	 * Typed values of a field. The value is parsed straight from its characters, and the result
+	 * cached until the value changes (so asking for the same type again costs no parsing.)
+	 * Each type has its own cache slot, so reading one value as several types doesn't thrash.
+	 * Vectors and lists are separated by whitespace and/or commas.
+	 * All throw ParseException if this isn't a field.
+	 */
+	
+	private Object cached(int type) throws ParseException {
+		if (!isField()) throw new ParseException("Only a field has a typed value");
+		Object[] slots = parsed;
+		return (slots == null) ? null : slots[type];
+	}
+	
+	/*
+	 * A racing cache() may lose the other's result, which costs only a reparse.
+	 */
+	private void cache(int type, Object result) {
+		Object[] slots = parsed;
+		slots = (slots == null) ? new Object[N_TYPES] : slots.clone();
+		slots[type] = result;
+		parsed = slots;
+	}
+	
+	public int getIntValue() throws ParseException {
+		Object cached = cached(INT);
+		if (cached != null) return (Integer)cached;
+		int start = skipSeparators(0, false);
+		int end = trimmedEnd(start);
+		try {
+			int result = Integer.parseInt(value, start, end, 10);
+			cache(INT, result);
+			return result;
+		} catch (NumberFormatException e) {
+			throw badValue("an integer");
+		}
+	}
+	
+	public long getLongValue() throws ParseException {
+		Object cached = cached(LONG);
+		if (cached != null) return (Long)cached;
+		int start = skipSeparators(0, false);
+		int end = trimmedEnd(start);
+		try {
+			long result = Long.parseLong(value, start, end, 10);
+			cache(LONG, result);
+			return result;
+		} catch (NumberFormatException e) {
+			throw badValue("an integer");
+		}
+	}
+	
+	public double getDoubleValue() throws ParseException {
+		Object cached = cached(DOUBLE);
+		if (cached != null) return (Double)cached;
+		try {
+			double result = Double.parseDouble(value); // ignores leading and trailing whitespace itself
+			cache(DOUBLE, result);
+			return result;
+		} catch (NumberFormatException e) {
+			throw badValue("a number");
+		}
+	}
+	
+	/**
+	 * Accepts true/false or yes/no, in any case.
+	 */
+	public boolean getBooleanValue() throws ParseException {
+		Object cached = cached(BOOLEAN);
+		if (cached != null) return (Boolean)cached;
+		int start = skipSeparators(0, false);
+		int length = trimmedEnd(start)-start;
+		boolean result;
+		if (matches(start, length, "true") || matches(start, length, "yes")) {
+			result = true;
+		} else if (matches(start, length, "false") || matches(start, length, "no")) {
+			result = false;
+		} else {
+			throw badValue("true/false");
+		}
+		cache(BOOLEAN, result);
+		return result;
+	}
+	
+	/**
+	 * @return a new array each call (which the caller may change.)
+	 */
+	public int[] getIntArrayValue() throws ParseException {
+		Object cached = cached(INT_ARRAY);
+		if (cached != null) return ((int[])cached).clone();
+		int[] result = new int[countTokens()];
+		int i = 0;
+		for (int start = skipSeparators(0, true); start < value.length(); start = skipSeparators(start, true)) {
+			int end = tokenEnd(start);
+			try {
+				result[i++] = Integer.parseInt(value, start, end, 10);
+			} catch (NumberFormatException e) {
+				throw badValue("a list of integers");
+			}
+			start = end;
+		}
+		cache(INT_ARRAY, result);
+		return result.clone();
+	}
+	
+	/**
+	 * @return a new array each call (which the caller may change.)
+	 */
+	public double[] getDoubleArrayValue() throws ParseException {
+		Object cached = cached(DOUBLE_ARRAY);
+		if (cached != null) return ((double[])cached).clone();
+		double[] result = new double[countTokens()];
+		int i = 0;
+		for (int start = skipSeparators(0, true); start < value.length(); start = skipSeparators(start, true)) {
+			int end = tokenEnd(start);
+			try {
+				// No CharSequence version of parseDouble, so each number does make a String.
+				result[i++] = Double.parseDouble(value.substring(start, end));
+			} catch (NumberFormatException e) {
+				throw badValue("a list of numbers");
+			}
+			start = end;
+		}
+		cache(DOUBLE_ARRAY, result);
+		return result.clone();
+	}
+	
+	/**
+	 * @return an unmodifiable list.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> getStringListValue() throws ParseException {
+		Object cached = cached(STRING_LIST);
+		if (cached != null) return (List<String>)cached;
+		List<String> result = new ArrayList<String>(countTokens());
+		for (int start = skipSeparators(0, true); start < value.length(); start = skipSeparators(start, true)) {
+			int end = tokenEnd(start);
+			result.add(value.substring(start, end));
+			start = end;
+		}
+		result = Collections.unmodifiableList(result);
+		cache(STRING_LIST, result);
+		return result;
+	}
+	
+	private int skipSeparators(int i, boolean commas) {
+		while (i < value.length() && (value.charAt(i) <= ' ' || (commas && value.charAt(i) == ','))) i++;
+		return i;
+	}
+	
+	private int tokenEnd(int i) {
+		while (i < value.length() && value.charAt(i) > ' ' && value.charAt(i) != ',') i++;
+		return i;
+	}
+	
+	private int trimmedEnd(int start) {
+		int end = value.length();
+		while (end > start && value.charAt(end-1) <= ' ') end--;
+		return end;
+	}
+	
+	private int countTokens() {
+		int n = 0;
+		for (int start = skipSeparators(0, true); start < value.length(); start = skipSeparators(start, true)) {
+			start = tokenEnd(start);
+			n++;
+		}
+		return n;
+	}
+	
+	private boolean matches(int start, int length, String word) {
+		return length == word.length() && value.regionMatches(true, start, word, 0, length);
+	}
+	
+	private ParseException badValue(String expected) {
+		return new ParseException("Field "+key+": '"+value.trim()+"' is not "+expected);
 	}
 	
 	public boolean isField()   { return type == stuffType.FIELD; }
@@ -72,7 +320,24 @@ public class GenericNexusStuff {
 	public String getKey() { return key; }               // will be 'null' if not FIELD
 	public String getSeparator() { return separator; }   // will be 'null' if not FIELD
 	public String getValue() { return value; }           // will be 'null' if COMMENT
-	public NexusComment getComment() { return comment; } // will be 'null' if not COMMENT
+	// will be 'null' if not COMMENT. A copy if frozen, so the frozen block can't be changed through it.
+	public NexusComment getComment() { return (frozen && comment != null) ? copy(comment) : comment; }
+	
+	/*
+	 * Deep copy: a comment's parts are strings and nested comments.
+	 */
+	private static NexusComment copy(NexusComment comment) {
+		NexusComment result = new NexusComment();
+		for (Iterator<?> parts = comment.commentIterator(); parts.hasNext(); ) {
+			Object part = parts.next();
+			if (part instanceof NexusComment) {
+				result.addCommentText(copy((NexusComment)part));
+			} else {
+				result.addCommentText((String)part);
+			}
+		}
+		return result;
+	}
 	
 	public void writeObject(final Writer writer) throws IOException {
 		switch (type) {
@@ -0,0 +1,263 @@
+package biojavaExtensions;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.biojavax.bio.phylo.io.nexus.DistancesBlock;
+
+/**
+ * A compact binary file format for large symmetric distance matrices, as a sidecar to
+ * (or replacement for) a DISTANCES block, and a memory mapped reader for it. Opening a
+ * matrix only reads the taxon labels; cells are read from the mapped file on demand.
+ *
+ * File layout (big-endian):
+ *   4 bytes    magic "NXDM"
+ *   int        format version (1)
+ *   int        number of taxa, n
+ *   int        bytes per value: 4 (float32) or 8 (float64)
+ *   long       file offset of the matrix data
+ *   n labels   each an int byte count followed by the UTF-8 bytes
+ *   padding    to a multiple of 8 bytes
+ *   data       packed lower triangle including the diagonal, row by row:
+ *              (0,0), (1,0), (1,1), (2,0) ... i.e. n*(n+1)/2 values
+ *
+ * Matrices are assumed symmetric: only the lower triangle of the source is stored.
+ *
+ * @author woodhams
+ *
+ */
+public class MappedDistanceMatrix implements DistanceMatrix, Closeable {
+
+	private static final byte[] MAGIC = {'N','X','D','M'};
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+	private static final int CHUNK_SHIFT = 30; // map in 1GB chunks. (Must be a multiple of 8 bytes.)
+
+	private FileChannel channel;
+	private String[] taxa;
+	private Map<String,Integer> taxonIndex;
+	private int bytesPerValue;
+	private MappedByteBuffer[] chunks;
+
+	/**
+	 * Opens a matrix file written by write().
+	 * @param file
+	 * @throws IOException
+	 */
+	public MappedDistanceMatrix(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(header, 0);
+			for (int i=0; i<MAGIC.length; i++) {
+				if (header.get(i) != MAGIC[i]) throw new IOException(file+" is not a distance matrix file");
+			}
+			int version = header.getInt(4);
+			if (version != VERSION) throw new IOException("Unsupported distance matrix file version "+version);
+			int nTax = header.getInt(8);
+			bytesPerValue = header.getInt(12);
+			if (bytesPerValue != 4 && bytesPerValue != 8) throw new IOException("Bad value size "+bytesPerValue);
+			long dataOffset = header.getLong(16);
+
+			ByteBuffer labelBuffer = ByteBuffer.allocate((int)(dataOffset-HEADER_SIZE));
+			readFully(labelBuffer, HEADER_SIZE);
+			labelBuffer.flip();
+			taxa = new String[nTax];
+			taxonIndex = new HashMap<String,Integer>();
+			for (int i=0; i<nTax; i++) {
+				byte[] bytes = new byte[labelBuffer.getInt()];
+				labelBuffer.get(bytes);
+				taxa[i] = new String(bytes, StandardCharsets.UTF_8);
+				taxonIndex.put(taxa[i], i);
+			}
+
+			long dataLength = nCells(nTax)*bytesPerValue;
+			if (dataOffset+dataLength > channel.size()) throw new IOException(file+" is truncated");
+			int nChunks = (int)((dataLength + (1L<<CHUNK_SHIFT) - 1) >>> CHUNK_SHIFT);
+			chunks = new MappedByteBuffer[nChunks];
+			for (int i=0; i<nChunks; i++) {
+				long start = (long)i << CHUNK_SHIFT;
+				long size = Math.min(1L<<CHUNK_SHIFT, dataLength-start);
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset+start, size);
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position+buffer.position());
+			if (n < 0) throw new IOException("Distance matrix file is truncated");
+		}
+	}
+
+	private static long nCells(int nTax) {
+		return (long)nTax*(nTax+1)/2;
+	}
+
+	public int getNTax() {
+		return taxa.length;
+	}
+
+	public String[] getTaxa() {
+		return taxa.clone();
+	}
+
+	/**
+	 * @return index of the taxon, or -1 if not present.
+	 */
+	public int getTaxonIndex(String taxon) {
+		Integer index = taxonIndex.get(taxon);
+		return (index == null) ? -1 : index;
+	}
+
+	public double getDistance(int row, int col) {
+		int n = taxa.length;
+		if (row < 0 || row >= n || col < 0 || col >= n) {
+			throw new IndexOutOfBoundsException("Distance ("+row+","+col+") outside "+n+"x"+n+" matrix");
+		}
+		long hi = Math.max(row, col);
+		long lo = Math.min(row, col);
+		long offset = (hi*(hi+1)/2 + lo) * bytesPerValue;
+		MappedByteBuffer chunk = chunks[(int)(offset >>> CHUNK_SHIFT)];
+		int position = (int)(offset & ((1L<<CHUNK_SHIFT)-1));
+		return (bytesPerValue == 8) ? chunk.getDouble(position) : chunk.getFloat(position);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if either taxon isn't in the matrix.
+	 */
+	public double getDistance(String taxon1, String taxon2) {
+		return getDistance(requireTaxon(taxon1), requireTaxon(taxon2));
+	}
+
+	private int requireTaxon(String taxon) {
+		Integer index = taxonIndex.get(taxon);
+		if (index == null) throw new IllegalArgumentException("Taxon '"+taxon+"' is not in the distance matrix");
+		return index;
+	}
+
+	/**
+	 * Converts to a DistancesBlock as made by NexusUtils.makeDistancesBlock.
+	 * (This puts the whole matrix on the heap. To write NEXUS without doing so, use writeNexus.)
+	 */
+	public DistancesBlock toDistancesBlock() {
+		int n = taxa.length;
+		double[][] distances = new double[n][n];
+		for (int row=0; row<n; row++) {
+			for (int col=0; col<n; col++) distances[row][col] = getDistance(row,col);
+		}
+		return NexusUtils.makeDistancesBlock(taxa.clone(), distances);
+	}
+
+	/**
+	 * Writes a DISTANCES block straight from the mapped file.
+	 */
+	public void writeNexus(Writer writer, DistancesWriter distancesWriter) throws IOException {
+		distancesWriter.writeBlock(writer, taxa, this);
+	}
+
+	@Override
+	public void close() throws IOException {
+		// The mapping itself is released when garbage collected.
+		channel.close();
+	}
+
+	/**
+	 * Write a matrix file. The matrix is streamed out, so needs no extra memory.
+	 * @param file
+	 * @param taxa
+	 * @param distances - only the lower triangle (row >= col) is used.
+	 * @param singlePrecision - if true, store values as float32 rather than float64.
+	 * @throws IOException
+	 */
+	public static void write(File file, String[] taxa, DistanceMatrix distances, boolean singlePrecision) throws IOException {
+		int n = taxa.length;
+		if (distances.getNTax() != n)
+			throw new IllegalArgumentException("distances must be square matrix of same size as taxa");
+		byte[][] labels = new byte[n][];
+		long labelsLength = 0;
+		for (int i=0; i<n; i++) {
+			labels[i] = taxa[i].getBytes(StandardCharsets.UTF_8);
+			labelsLength += 4 + labels[i].length;
+		}
+		long dataOffset = HEADER_SIZE + labelsLength;
+		int padding = (int)((8 - dataOffset%8) % 8);
+		dataOffset += padding;
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1<<16))) {
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(n);
+			out.writeInt(singlePrecision ? 4 : 8);
+			out.writeLong(dataOffset);
+			for (byte[] label : labels) {
+				out.writeInt(label.length);
+				out.write(label);
+			}
+			for (int i=0; i<padding; i++) out.write(0);
+			for (int row=0; row<n; row++) {
+				for (int col=0; col<=row; col++) {
+					double value = distances.getDistance(row, col);
+					if (singlePrecision) {
+						out.writeFloat((float)value);
+					} else {
+						out.writeDouble(value);
+					}
+				}
+			}
+		}
+	}
+
+	public static void write(File file, String[] taxa, double[][] distances, boolean singlePrecision) throws IOException {
+		write(file, taxa, DistancesWriter.asDistanceMatrix(distances), singlePrecision);
+	}
+
+	/**
+	 * Write a matrix file from a DISTANCES block, e.g. one from NexusUtils.makeDistancesBlock
+	 * or a parsed ExtDistancesBlock. For a plain DistancesBlock, the matrix tokens are
+	 * converted to doubles first (missing values become NaN.)
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static void write(File file, DistancesBlock block, boolean singlePrecision) throws IOException {
+		if (block instanceof ExtDistancesBlock) {
+			ExtDistancesBlock extBlock = (ExtDistancesBlock)block;
+			String[] taxa = new String[extBlock.getNTax()];
+			for (int i=0; i<taxa.length; i++) taxa[i] = extBlock.getTaxon(i);
+			write(file, taxa, extBlock, singlePrecision);
+			return;
+		}
+		String[] taxa = (String[])block.getMatrixLabels().toArray(new String[0]);
+		int n = taxa.length;
+		boolean upper = "UPPER".equalsIgnoreCase(block.getTriangle());
+		boolean both = "BOTH".equalsIgnoreCase(block.getTriangle());
+		double[][] distances = new double[n][n];
+		for (int row=0; row<n; row++) {
+			List data = block.getMatrixData(taxa[row]);
+			int col = upper ? (block.isDiagonal() ? row : row+1) : 0;
+			for (Object token : data) {
+				if (!(token instanceof String)) continue; // comment
+				double value = token.equals(block.getMissing()) ? Double.NaN : Double.parseDouble((String)token);
+				distances[row][col] = value;
+				if (!both) distances[col][row] = value;
+				col++;
+			}
+		}
+		write(file, taxa, distances, singlePrecision);
+	}
+}
@@ -0,0 +1,339 @@
+package biojavaExtensions;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.biojava.bio.seq.io.ParseException;
+import org.biojavax.bio.phylo.io.nexus.NexusBlockBuilder;
+import org.biojavax.bio.phylo.io.nexus.NexusFile;
+
+/**
+ * Alternative to NexusFileFormat.parseFile for files whose blocks of interest are all
+ * GenericBlocks. The file is memory mapped and scanned a byte at a time, and tokens are
+ * passed to GenericBlockParser.parseToken(CharSequence) as slices of the mapped file,
+ * so no String is created per token: the parser appends the slice's characters straight
+ * into the builder's buffers.
+ *
+ * Tokens are split the way Biojava splits them for GenericBlockParser: each newline is a
+ * token by itself, other runs of whitespace are a token, and ';' and comments go to
+ * endTokenGroup() and begin/end comment respectively, so the resulting GenericBlocks
+ * are the same as from the NexusFileFormat route.
+ *
+ * Blocks with no registered parser are skipped, and do not appear in the NexusFile, unless
+ * setPassthroughUnknownBlocks(true) has been called, in which case they appear as RawBlocks.
+ *
+ * Byte values are passed as chars (ISO-8859-1 fashion) while tokenizing. A token containing
+ * non-ASCII bytes is instead decoded (as UTF-8) to a String before being passed on.
+ *
+ * Limitation: files must be under 2GB (a single MappedByteBuffer.)
+ *
+ * @author woodhams
+ *
+ */
+public class MappedNexusTokenizer {
+
+	private File file;
+	private MappedByteBuffer buffer;
+	private int length;
+	private Map<String,GenericBlockParser> parsers; // keyed on upper case block name
+	private Slice token; // reused for every token
+	private boolean passthroughUnknownBlocks;
+
+	public MappedNexusTokenizer(File file) throws IOException {
+		this.file = file;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("File too large to map: "+file);
+			length = (int)channel.size();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+		}
+		parsers = new HashMap<String,GenericBlockParser>();
+		token = new Slice(0,0);
+		passthroughUnknownBlocks = false;
+	}
+
+	/**
+	 * If true, blocks with no registered parser are put in the NexusFile as RawBlocks,
+	 * so that writing the NexusFile reproduces them unchanged.
+	 */
+	public void setPassthroughUnknownBlocks(boolean passthrough) {
+		passthroughUnknownBlocks = passthrough;
+	}
+
+	/**
+	 * Block name is not case sensitive.
+	 */
+	public void setBlockParser(String blockName, GenericBlockParser parser) {
+		parsers.put(blockName.toUpperCase(), parser);
+	}
+
+	public NexusFile parse() throws ParseException {
+		NexusFile nexusFile = new NexusFile();
+		int pos = 0;
+		while ((pos = skipWhitespaceAndComments(pos)) < length) {
+			int wordEnd = wordEnd(pos);
+			if (equalsIgnoreCase(pos,wordEnd,"BEGIN")) {
+				int nameStart = skipWhitespaceAndComments(wordEnd);
+				int nameEnd = wordEnd(nameStart);
+				String blockName = new Slice(nameStart,nameEnd).toString();
+				int beginEnd = statementEnd(nameEnd);
+				GenericBlockParser parser = parsers.get(blockName.toUpperCase());
+				if (parser == null) {
+					int blockStart = pos;
+					pos = skipBlock(beginEnd+1);
+					if (passthroughUnknownBlocks) nexusFile.addObject(new RawBlock(blockName, file, blockStart, pos));
+				} else {
+					pos = parseBlock(parser,blockName,beginEnd+1);
+					nexusFile.addObject(((NexusBlockBuilder)parser.getBlockListener()).getNexusBlock());
+				}
+			} else if (equalsIgnoreCase(pos,wordEnd,"#NEXUS")) {
+				pos = wordEnd; // no terminating ';'
+			} else {
+				pos = statementEnd(pos)+1;
+			}
+		}
+		return nexusFile;
+	}
+
+	/*
+	 * Feed the tokens of one block to the parser. 'pos' is just after the ';' of the BEGIN command.
+	 * Returns the position after the ';' of the END command.
+	 */
+	private int parseBlock(GenericBlockParser parser, String blockName, int pos) throws ParseException {
+		parser.startBlock(blockName);
+		boolean statementStart = true;
+		while (pos < length) {
+			int c = get(pos);
+			if (c == '\n') {
+				parser.parseToken(token.set(pos,pos+1));
+				pos++;
+			} else if (c == '\r') {
+				pos++;
+			} else if (c == ' ' || c == '\t' || c == '\f') {
+				int end = pos+1;
+				while (end < length && ((c=get(end)) == ' ' || c == '\t' || c == '\f')) end++;
+				parser.parseToken(token.set(pos,end));
+				pos = end;
+			} else if (c == '[') {
+				pos = comment(parser,pos);
+			} else if (c == ';') {
+				parser.endTokenGroup();
+				statementStart = true;
+				pos++;
+			} else {
+				int end = tokenEnd(pos);
+				if (statementStart && (equalsIgnoreCase(pos,end,"END") || equalsIgnoreCase(pos,end,"ENDBLOCK"))) {
+					int semicolon = skipWhitespaceAndComments(end);
+					if (semicolon < length && get(semicolon) == ';') {
+						parser.endBlock();
+						return semicolon+1;
+					}
+				}
+				parser.parseToken(token(pos,end));
+				statementStart = false;
+				pos = end;
+			}
+		}
+		throw new ParseException("Block "+blockName+" has no END");
+	}
+
+	/*
+	 * Pass a (possibly nested) comment starting at 'pos' to the parser.
+	 * Returns the position after the closing ']'.
+	 */
+	private int comment(GenericBlockParser parser, int pos) throws ParseException {
+		parser.beginComment();
+		pos++;
+		int textStart = pos;
+		while (pos < length) {
+			int c = get(pos);
+			if (c == '[') {
+				if (pos > textStart) parser.commentText(new Slice(textStart,pos).toString());
+				pos = comment(parser,pos);
+				textStart = pos;
+			} else if (c == ']') {
+				if (pos > textStart) parser.commentText(new Slice(textStart,pos).toString());
+				parser.endComment();
+				return pos+1;
+			} else {
+				pos++;
+			}
+		}
+		throw new ParseException("Unterminated comment at end of file");
+	}
+
+	/*
+	 * Skip the remainder of a block we have no parser for.
+	 */
+	private int skipBlock(int pos) throws ParseException {
+		while ((pos = skipWhitespaceAndComments(pos)) < length) {
+			int wordEnd = wordEnd(pos);
+			boolean isEnd = equalsIgnoreCase(pos,wordEnd,"END") || equalsIgnoreCase(pos,wordEnd,"ENDBLOCK");
+			pos = statementEnd(pos)+1;
+			if (isEnd) return pos;
+		}
+		throw new ParseException("Block has no END");
+	}
+
+	/*
+	 * The reused slice for an ASCII token, or the token decoded from UTF-8 if it is not ASCII.
+	 * (The slice gives one char per byte, which would mangle multi-byte characters.)
+	 */
+	private CharSequence token(int start, int end) {
+		for (int i=start; i<end; i++) {
+			if (buffer.get(i) < 0) return new Slice(start,end).toString();
+		}
+		return token.set(start,end);
+	}
+
+	private int get(int pos) {
+		return buffer.get(pos) & 0xff;
+	}
+
+	private static boolean isWhitespace(int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+
+	private int skipWhitespaceAndComments(int pos) throws ParseException {
+		while (pos < length) {
+			int c = get(pos);
+			if (c == '[') {
+				pos = skipComment(pos);
+			} else if (isWhitespace(c)) {
+				pos++;
+			} else {
+				return pos;
+			}
+		}
+		return pos;
+	}
+
+	private int skipComment(int pos) throws ParseException {
+		int depth = 0;
+		while (pos < length) {
+			int c = get(pos++);
+			if (c == '[') {
+				depth++;
+			} else if (c == ']') {
+				depth--;
+				if (depth == 0) return pos;
+			}
+		}
+		throw new ParseException("Unterminated comment at end of file");
+	}
+
+	/*
+	 * 'pos' is at an opening quote. Returns position after the closing quote.
+	 */
+	private int skipQuoted(int pos) throws ParseException {
+		pos++;
+		while (pos < length) {
+			if (get(pos++) == '\'') {
+				if (pos < length && get(pos) == '\'') {
+					pos++; // escaped quote
+				} else {
+					return pos;
+				}
+			}
+		}
+		throw new ParseException("Unterminated quoted token at end of file");
+	}
+
+	/*
+	 * End of a word for the purposes of recognizing commands: stops at '=' as well.
+	 */
+	private int wordEnd(int pos) throws ParseException {
+		if (pos < length && get(pos) == '\'') return skipQuoted(pos);
+		int c;
+		while (pos < length && !isWhitespace(c=get(pos)) && c != ';' && c != '[' && c != '=') pos++;
+		return pos;
+	}
+
+	/*
+	 * End of a token as passed to the parser. Quoted sections are part of the token.
+	 */
+	private int tokenEnd(int pos) throws ParseException {
+		int c;
+		while (pos < length && !isWhitespace(c=get(pos)) && c != ';' && c != '[') {
+			if (c == '\'') {
+				pos = skipQuoted(pos);
+			} else {
+				pos++;
+			}
+		}
+		return pos;
+	}
+
+	/*
+	 * Returns position of the ';' ending the statement containing 'pos'
+	 */
+	private int statementEnd(int pos) throws ParseException {
+		while (pos < length) {
+			int c = get(pos);
+			if (c == ';') {
+				return pos;
+			} else if (c == '[') {
+				pos = skipComment(pos);
+			} else if (c == '\'') {
+				pos = skipQuoted(pos);
+			} else {
+				pos++;
+			}
+		}
+		throw new ParseException("Missing ';' at end of file");
+	}
+
+	private boolean equalsIgnoreCase(int start, int end, String word) {
+		if (end-start != word.length()) return false;
+		for (int i=0; i<word.length(); i++) {
+			if (Character.toUpperCase((char)get(start+i)) != Character.toUpperCase(word.charAt(i))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * A CharSequence view of part of the mapped file.
+	 */
+	private class Slice implements CharSequence {
+		private int start;
+		private int end;
+
+		private Slice(int start, int end) {
+			set(start,end);
+		}
+
+		private Slice set(int start, int end) {
+			this.start = start;
+			this.end = end;
+			return this;
+		}
+
+		@Override
+		public int length() {
+			return end-start;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char)get(start+index);
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			return new Slice(start+from,start+to);
+		}
+
+		@Override
+		public String toString() {
+			byte[] bytes = new byte[end-start];
+			for (int i=0; i<bytes.length; i++) bytes[i] = buffer.get(start+i);
+			return new String(bytes,StandardCharsets.UTF_8);
+		}
+	}
+}
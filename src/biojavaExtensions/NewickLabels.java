@@ -0,0 +1,194 @@
+package biojavaExtensions;
+
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Static methods for working on the taxon labels within a Newick tree string
+ * without parsing the tree.
+ *
+ * @author woodhams
+ *
+ */
+public class NewickLabels {
+
+	private NewickLabels() {} // static methods only
+
+	/**
+	 * Replace each leaf label in 'tree' which is a key of 'translations' with its value.
+	 * Labels of internal nodes (which follow a ')') are left alone, as are comments.
+	 * Quoted labels are looked up without their quotes, and replacements are quoted if
+	 * necessary.
+	 *
+	 * @param tree
+	 * @param translations
+	 * @return
+	 */
+	public static String translate(String tree, Map<String,String> translations) {
+		if (translations.isEmpty()) return tree;
+		return replaceLabels(tree, translations::get);
+	}
+
+	/**
+	 * The reverse of translate: replace each leaf label with its code from 'codes'. Labels 
+	 * not yet in 'codes' are added to it, with code "n+1" where n is the number of codes 
+	 * already present, so 'codes' becomes the label->number half of a TRANSLATE table.
+	 *
+	 * @param tree
+	 * @param codes - will have new labels added
+	 * @return
+	 */
+	public static String encode(String tree, Map<String,String> codes) {
+		return replaceLabels(tree, label -> codes.computeIfAbsent(label, newLabel -> Integer.toString(codes.size()+1)));
+	}
+
+	/**
+	 * As encode(String,Map), but codes come from (and new labels are registered in) 'taxa':
+	 * a label's code is its ID+1.
+	 *
+	 * @param tree
+	 * @param taxa - will have new labels added
+	 * @return
+	 */
+	public static String encode(String tree, TaxonRegistry taxa) {
+		return replaceLabels(tree, label -> Integer.toString(taxa.register(label)+1));
+	}
+
+	/**
+	 * Pass each leaf label of 'tree' (unquoted), in order, to 'action'. Leaves are found 
+	 * as by translate (and CompactTree.parse.)
+	 */
+	static void forEachLeafLabel(String tree, Consumer<String> action) {
+		int n = tree.length();
+		boolean expectLabel = true; // at start of string, or just after '(' or ','
+		int i = 0;
+		while (i<n) {
+			char c = tree.charAt(i);
+			if (c == '[') {
+				i = copyComment(tree,i,null);
+			} else if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '(' || c == ',') {
+				expectLabel = true;
+				i++;
+			} else if (expectLabel && c != ')' && c != ':' && c != ';') {
+				int end = labelEnd(tree,i);
+				action.accept(unquote(tree,i,end));
+				expectLabel = false;
+				i = end;
+			} else {
+				expectLabel = false;
+				i++;
+			}
+		}
+	}
+
+	/*
+	 * 'replacements' gives the replacement for a label, or null to leave it alone.
+	 */
+	private static String replaceLabels(String tree, UnaryOperator<String> replacements) {
+		StringBuilder out = new StringBuilder(tree.length()*2);
+		int n = tree.length();
+		boolean expectLabel = true; // at start of string, or just after '(' or ','
+		int i = 0;
+		while (i<n) {
+			char c = tree.charAt(i);
+			if (c == '[') {
+				i = copyComment(tree,i,out);
+			} else if (Character.isWhitespace(c)) {
+				out.append(c);
+				i++;
+			} else if (c == '(' || c == ',') {
+				out.append(c);
+				expectLabel = true;
+				i++;
+			} else if (expectLabel && c != ')' && c != ':' && c != ';') {
+				int end = labelEnd(tree,i);
+				String label = unquote(tree,i,end);
+				String replacement = replacements.apply(label);
+				if (replacement == null) {
+					out.append(tree, i, end);
+				} else {
+					appendQuotedIfNeeded(replacement,out);
+				}
+				expectLabel = false;
+				i = end;
+			} else {
+				out.append(c);
+				expectLabel = false;
+				i++;
+			}
+		}
+		return out.toString();
+	}
+
+	/**
+	 * @return index of the first character after the label which starts at 'start'
+	 */
+	static int labelEnd(CharSequence tree, int start) {
+		int n = tree.length();
+		if (tree.charAt(start) == '\'') {
+			int i = start+1;
+			while (i<n) {
+				if (tree.charAt(i) == '\'') {
+					if (i+1<n && tree.charAt(i+1) == '\'') {
+						i += 2;
+					} else {
+						return i+1;
+					}
+				} else {
+					i++;
+				}
+			}
+			return n;
+		}
+		int i = start;
+		while (i<n && !isPunctuation(tree.charAt(i)) && !Character.isWhitespace(tree.charAt(i))) i++;
+		return i;
+	}
+
+	static boolean isPunctuation(char c) {
+		return c=='(' || c==')' || c==',' || c==':' || c==';' || c=='[';
+	}
+
+	/**
+	 * The label between start and end, with any quotes removed.
+	 * (Unquoted labels are returned as they are, i.e. underscores are not converted to spaces.)
+	 */
+	static String unquote(CharSequence tree, int start, int end) {
+		if (tree.charAt(start) != '\'') return tree.subSequence(start, end).toString();
+		int last = (end-1 > start && tree.charAt(end-1) == '\'') ? end-1 : end;
+		return tree.subSequence(start+1, last).toString().replace("''", "'");
+	}
+
+	static void appendQuotedIfNeeded(String label, StringBuilder out) {
+		boolean needsQuotes = label.isEmpty();
+		for (int i=0; i<label.length() && !needsQuotes; i++) {
+			char c = label.charAt(i);
+			needsQuotes = isPunctuation(c) || Character.isWhitespace(c) || c==']' || c=='\'';
+		}
+		if (needsQuotes) {
+			out.append('\'').append(label.replace("'", "''")).append('\'');
+		} else {
+			out.append(label);
+		}
+	}
+
+	/**
+	 * Copy the (possibly nested) comment starting at 'start' to 'out' (if not null.)
+	 * @return index of the first character after the comment
+	 */
+	private static int copyComment(String tree, int start, StringBuilder out) {
+		int depth = 0;
+		int i = start;
+		int n = tree.length();
+		do {
+			char c = tree.charAt(i++);
+			if (c == '[') depth++;
+			else if (c == ']') depth--;
+		} while (depth>0 && i<n);
+		if (out != null) out.append(tree, start, i);
+		return i;
+	}
+}
@@ -0,0 +1,233 @@
+package biojavaExtensions;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.biojavax.bio.phylo.io.nexus.DistancesBlock;
+import org.biojavax.bio.phylo.io.nexus.DistancesBlockParser;
+import org.biojavax.bio.phylo.io.nexus.NexusBlockParser;
+import org.biojavax.bio.phylo.io.nexus.NexusFile;
+import org.biojavax.bio.phylo.io.nexus.NexusFileBuilder;
+import org.biojavax.bio.phylo.io.nexus.NexusFileFormat;
+import org.biojavax.bio.phylo.io.nexus.TreesBlock;
+import org.biojavax.bio.phylo.io.nexus.TreesBlockParser;
+
+/**
+ * Parses many NEXUS files concurrently.
+ *
+ * Block parsers and builders are stateful, so each worker thread gets its own
+ * NexusFileBuilder (made by the BuilderFactory the first time that thread needs one) and
+ * reuses it for every file it parses. (With a thread-per-task executor, such as Java 21's
+ * virtual thread executor, this means a new builder per file.)
+ *
+ * Results are returned in the order files finish, not the order they were given. A file
+ * which fails to parse gives a Result holding the exception (or Error, such as a
+ * StackOverflowError on deeply nested input); the rest of the batch carries on. Only a
+ * VirtualMachineError such as OutOfMemoryError ends the batch, from next().
+ *
+ * @author woodhams
+ *
+ */
+public class NexusBatchParser implements Closeable {
+
+	/**
+	 * Makes a NexusFileBuilder with all required block parsers set.
+	 */
+	public interface BuilderFactory {
+		public NexusFileBuilder newBuilder();
+	}
+
+	/**
+	 * Outcome of parsing one file: either a NexusFile or the exception which stopped the parse.
+	 */
+	public static class Result {
+		private File file;
+		private NexusFile nexusFile;
+		private Throwable error;
+
+		private Result(File file, NexusFile nexusFile, Throwable error) {
+			this.file = file;
+			this.nexusFile = nexusFile;
+			this.error = error;
+		}
+
+		public File getFile() { return file; }
+		public NexusFile getNexusFile() { return nexusFile; } // null if parse failed
+		public Throwable getError() { return error; }         // null if parse succeeded. May be an Error, e.g. StackOverflowError.
+		public boolean succeeded() { return error == null; }
+	}
+
+	private ExecutorService executor;
+	private boolean ownExecutor; // if true, we shut it down on close()
+	private ThreadLocal<NexusFileBuilder> builders;
+
+	/**
+	 * Uses a ForkJoinPool with one thread per available processor.
+	 */
+	public NexusBatchParser(BuilderFactory factory) {
+		this(factory, Runtime.getRuntime().availableProcessors());
+	}
+
+	public NexusBatchParser(BuilderFactory factory, int nThreads) {
+		this(factory, new ForkJoinPool(nThreads));
+		ownExecutor = true;
+	}
+
+	/**
+	 * @param factory
+	 * @param executor - will not be shut down by close().
+	 */
+	public NexusBatchParser(final BuilderFactory factory, ExecutorService executor) {
+		this.executor = executor;
+		ownExecutor = false;
+		builders = new ThreadLocal<NexusFileBuilder>() {
+			@Override
+			protected NexusFileBuilder initialValue() {
+				return factory.newBuilder();
+			}
+		};
+	}
+
+	/**
+	 * A BuilderFactory for the common case: the named blocks are parsed as GenericBlocks,
+	 * TREES and DISTANCES blocks into ExtTreesBlocks and ExtDistancesBlocks, other unrecognized blocks by UseableUnknownBlockParser, 
+	 * and Biojava's other standard blocks by Biojava's parsers.
+	 */
+	public static BuilderFactory genericBlocks(final String... blockNames) {
+		return genericBlocks(null, blockNames);
+	}
+
+	/**
+	 * As genericBlocks(String...), with every parser reporting to 'metrics' (which may be null.)
+	 */
+	public static BuilderFactory genericBlocks(final ParseMetricsListener metrics, final String... blockNames) {
+		return new BuilderFactory() {
+			public NexusFileBuilder newBuilder() {
+				NexusFileBuilder builder = new NexusFileBuilder();
+				for (String blockName : blockNames) {
+					GenericBlockParser parser = new GenericBlockParser();
+					parser.setMetrics(metrics);
+					builder.setBlockParser(blockName, parser);
+				}
+				ExtTreesBlockBuilder treesBuilder = new ExtTreesBlockBuilder();
+				treesBuilder.setMetrics(metrics);
+				builder.setBlockParser(TreesBlock.TREES_BLOCK, new TreesBlockParser(treesBuilder));
+				builder.setBlockParser(DistancesBlock.DISTANCES_BLOCK, new DistancesBlockParser(new ExtDistancesBlockBuilder()));
+				UseableUnknownBlockParser unknownParser = new UseableUnknownBlockParser();
+				unknownParser.setMetrics(metrics);
+				builder.setBlockParser(NexusBlockParser.UNKNOWN_BLOCK, unknownParser);
+				return builder;
+			}
+		};
+	}
+
+	/**
+	 * Parse every file in the directory accepted by the filter (which may be null.)
+	 * @see #parse(List)
+	 */
+	public Iterator<Result> parseDirectory(File directory, FilenameFilter filter) {
+		File[] files = directory.listFiles(filter);
+		if (files == null) throw new IllegalArgumentException(directory+" is not a readable directory");
+		Arrays.sort(files);
+		return parse(Arrays.asList(files));
+	}
+
+	/**
+	 * Submits all the files for parsing and returns immediately. The iterator returns
+	 * each Result as soon as its file has been parsed, blocking in next() until one is ready.
+	 * @param files
+	 * @return
+	 */
+	public Iterator<Result> parse(List<File> files) {
+		final CompletionService<Result> completionService = new ExecutorCompletionService<Result>(executor);
+		for (final File file : files) {
+			completionService.submit(new Callable<Result>() {
+				public Result call() {
+					return parseOne(file);
+				}
+			});
+		}
+		final int nFiles = files.size();
+		return new Iterator<Result>() {
+			private int nReturned = 0;
+			public boolean hasNext() {
+				return nReturned < nFiles;
+			}
+			public Result next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				Future<Result> future;
+				try {
+					future = completionService.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(e);
+				}
+				nReturned++; // this file's turn is used up, even if it threw
+				try {
+					return future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(e);
+				} catch (ExecutionException e) {
+					// parseOne catches everything but VirtualMachineErrors other than
+					// StackOverflowError (e.g. OutOfMemoryError), which are not per-file, so
+					// end the batch.
+					throw new RuntimeException(e.getCause());
+				}
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Parse all the files, waiting until all are done.
+	 * @param files
+	 * @return results in order of completion
+	 */
+	public List<Result> parseAll(List<File> files) {
+		List<Result> results = new ArrayList<Result>(files.size());
+		Iterator<Result> iter = parse(files);
+		while (iter.hasNext()) results.add(iter.next());
+		return results;
+	}
+
+	private Result parseOne(File file) {
+		try {
+			NexusFileBuilder builder = builders.get(); // inside the try: the factory may fail too
+			NexusFileFormat.parseFile(builder, file);
+			return new Result(file, builder.getNexusFile(), null);
+		} catch (StackOverflowError e) {
+			// e.g. deeply nested input: this file's failure, and the stack has unwound.
+			builders.remove();
+			return new Result(file, null, e);
+		} catch (VirtualMachineError e) {
+			// OutOfMemoryError etc. aren't the file's fault, and may not be recoverable.
+			builders.remove();
+			throw e;
+		} catch (Throwable e) {
+			// Builder may be left in a bad state part way through a file, so don't reuse it.
+			builders.remove();
+			return new Result(file, null, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (ownExecutor) executor.shutdown();
+	}
+}
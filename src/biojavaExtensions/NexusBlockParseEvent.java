@@ -0,0 +1,45 @@
+package biojavaExtensions;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for the parsing of one NEXUS block, committed by ParseMetrics.
+ * Its duration is the block's wall time.
+ *
+ * @author woodhams
+ *
+ */
+@Name("biojavaExtensions.NexusBlockParse")
+@Label("NEXUS Block Parse")
+@Category({"biojavaExtensions", "NEXUS"})
+@Description("Parsing of one NEXUS block")
+class NexusBlockParseEvent extends Event {
+	@Label("Block Name")
+	String blockName;
+
+	@Label("Characters")
+	@Description("Characters in tokens passed to the block parser")
+	long characters;
+
+	@Label("Tokens")
+	long tokens;
+
+	@Label("Fields")
+	long fields;
+
+	@Label("Comments")
+	long comments;
+
+	@Label("Trees")
+	long trees;
+
+	@Label("Allocated")
+	@Description("Bytes allocated by the parsing thread, or -1 if the JVM doesn't say")
+	@DataAmount
+	long allocated;
+}
@@ -0,0 +1,106 @@
+package biojavaExtensions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.biojava.bio.seq.io.ParseException;
+
+/**
+ * Finds where each block of a NEXUS file starts and ends, without parsing the blocks.
+ * [Comments] and 'quoted tokens' are respected, so a ';' or "END" inside either does not
+ * confuse it.
+ * 
+ * @author woodhams
+ *
+ */
+public class NexusBlockScanner {
+
+	/**
+	 * The byte range of one block, from the 'B' of BEGIN to just after the ';' of END.
+	 * Comments outside of any block are also reported, as spans with no block name, whose 
+	 * range is that of the whitespace and comments between blocks which contained them. 
+	 */
+	public static class BlockSpan {
+		private String blockName; // null for a comment
+		private String commentText; // null for a block
+		private long start;
+		private long end;
+		
+		BlockSpan(String blockName, String commentText, long start, long end) {
+			this.blockName = blockName;
+			this.commentText = commentText;
+			this.start = start;
+			this.end = end;
+		}
+		
+		public String getBlockName() { return blockName; }
+		public String getCommentText() { return commentText; }
+		public long getStart() { return start; }
+		public long getEnd() { return end; }
+		public long getLength() { return end-start; }
+		public boolean isComment() { return blockName == null; }
+		
+		@Override
+		public String toString() {
+			return (isComment() ? "[comment]" : blockName)+" "+start+"-"+end;
+		}
+	}
+	
+	private NexusBlockScanner() {} // static methods only
+	
+	/**
+	 * @param file
+	 * @return spans of all blocks and top level comments, in file order.
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static List<BlockSpan> scan(File file) throws IOException, ParseException {
+		try (NexusScanner scanner = new NexusScanner(new FileInputStream(file))) {
+			return scan(scanner);
+		}
+	}
+	
+	static List<BlockSpan> scan(NexusScanner scanner) throws IOException, ParseException {
+		List<BlockSpan> spans = new ArrayList<BlockSpan>();
+		ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+		List<String> comments = new ArrayList<String>();
+		while (true) {
+			long position = scanner.position();
+			boolean more = scanner.skipWhitespaceAndComments(comments, scratch);
+			for (String comment : comments) {
+				spans.add(new BlockSpan(null, comment, position, scanner.position()));
+			}
+			comments.clear();
+			if (!more) break;
+			
+			long start = scanner.position();
+			String word = scanner.readWord(scratch);
+			if (word.equalsIgnoreCase("BEGIN")) {
+				String blockName = scanner.readWord(scratch);
+				if (!scanner.skipStatement(null)) throw new ParseException("Unterminated BEGIN "+blockName);
+				skipToEnd(scanner, scratch, blockName);
+				spans.add(new BlockSpan(blockName, null, start, scanner.position()));
+			} else if (!word.equalsIgnoreCase("#NEXUS")) { // #NEXUS has no terminating ';'
+				scanner.skipStatement(null);
+			}
+		}
+		return spans;
+	}
+	
+	/**
+	 * Call just after the BEGIN command. Returns with the scanner just after the END command.
+	 */
+	static void skipToEnd(NexusScanner scanner, ByteArrayOutputStream scratch, String blockName) 
+			throws IOException, ParseException {
+		while (true) {
+			String command = scanner.readWord(scratch);
+			if (command == null) throw new ParseException("Block "+blockName+" has no END");
+			if (!scanner.skipStatement(null)) throw new ParseException("Block "+blockName+" has no END");
+			if (command.equalsIgnoreCase("END") || command.equalsIgnoreCase("ENDBLOCK")) return;
+		}
+	}
+}
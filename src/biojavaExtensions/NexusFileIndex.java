@@ -0,0 +1,134 @@
+package biojavaExtensions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.biojavax.bio.phylo.io.nexus.DistancesBlock;
+import org.biojavax.bio.phylo.io.nexus.NexusBlock;
+import org.biojavax.bio.phylo.io.nexus.NexusFile;
+import org.biojavax.bio.phylo.io.nexus.NexusObject;
+import org.biojavax.bio.phylo.io.nexus.TaxaBlock;
+import org.biojavax.bio.phylo.io.nexus.TreesBlock;
+
+/**
+ * An index of a NexusFile's blocks by name (not case sensitive), for finding blocks
+ * without iterating over the whole file each time as NexusUtils.getBlockByName does.
+ *
+ * The index is built once, in the constructor. Add and remove blocks through addObject and
+ * removeObject to keep it in step with the file; after changing the NexusFile directly,
+ * call rebuild().
+ *
+ * @author woodhams
+ *
+ */
+public class NexusFileIndex {
+
+	private NexusFile nexusFile;
+	private Map<String,List<NexusBlock>> blocks; // upper case block name -> blocks in file order
+
+	public NexusFileIndex(NexusFile nexusFile) {
+		this.nexusFile = nexusFile;
+		rebuild();
+	}
+
+	public NexusFile getNexusFile() {
+		return nexusFile;
+	}
+
+	public void rebuild() {
+		blocks = new HashMap<String,List<NexusBlock>>();
+		Iterator<?> iter = nexusFile.blockIterator();
+		while (iter.hasNext()) index((NexusBlock)iter.next());
+	}
+
+	private static String key(String blockName) {
+		return blockName.toUpperCase(Locale.ROOT);
+	}
+
+	private void index(NexusBlock block) {
+		String key = key(block.getBlockName());
+		List<NexusBlock> list = blocks.get(key);
+		if (list == null) {
+			list = new ArrayList<NexusBlock>(1);
+			blocks.put(key, list);
+		}
+		list.add(block);
+	}
+
+	/**
+	 * Adds to the end of the NexusFile.
+	 */
+	public void addObject(NexusObject object) {
+		nexusFile.addObject(object);
+		if (object instanceof NexusBlock) index((NexusBlock)object);
+	}
+
+	public void removeObject(NexusObject object) {
+		nexusFile.removeObject(object);
+		if (object instanceof NexusBlock) {
+			List<NexusBlock> list = blocks.get(key(((NexusBlock)object).getBlockName()));
+			if (list != null) list.remove(object);
+		}
+	}
+
+	/**
+	 * @return all blocks of this name, in file order. Empty list if there are none.
+	 */
+	public List<NexusBlock> getBlocks(String blockName) {
+		List<NexusBlock> list = blocks.get(key(blockName));
+		return (list == null) ? Collections.<NexusBlock>emptyList() : Collections.unmodifiableList(list);
+	}
+
+	public boolean hasBlock(String blockName) {
+		return !getBlocks(blockName).isEmpty();
+	}
+
+	/**
+	 * @return the first block of the given name, or null if there is none.
+	 */
+	public NexusBlock getBlock(String blockName) {
+		List<NexusBlock> list = getBlocks(blockName);
+		return list.isEmpty() ? null : list.get(0);
+	}
+
+	/**
+	 * Like getBlock, but throws an error if there is more than one block of that name.
+	 */
+	public NexusBlock getUniqueBlock(String blockName) {
+		List<NexusBlock> list = getBlocks(blockName);
+		if (list.size() > 1) throw new RuntimeException("File contains more than one "+blockName+" block");
+		return list.isEmpty() ? null : list.get(0);
+	}
+
+	/**
+	 * @return the first block of the given name which is of the given type, or null if there is none.
+	 * (e.g. a block parsed as a RawBlock or UseableUnknownBlockParser block is not a GenericBlock.)
+	 */
+	public <T extends NexusBlock> T getBlock(String blockName, Class<T> type) {
+		for (NexusBlock block : getBlocks(blockName)) {
+			if (type.isInstance(block)) return type.cast(block);
+		}
+		return null;
+	}
+
+	public GenericBlock getGenericBlock(String blockName) {
+		return getBlock(blockName, GenericBlock.class);
+	}
+
+	public TreesBlock getTreesBlock() {
+		return getBlock(TreesBlock.TREES_BLOCK, TreesBlock.class);
+	}
+
+	public DistancesBlock getDistancesBlock() {
+		return getBlock(DistancesBlock.DISTANCES_BLOCK, DistancesBlock.class);
+	}
+
+	public TaxaBlock getTaxaBlock() {
+		return getBlock(TaxaBlock.TAXA_BLOCK, TaxaBlock.class);
+	}
+}
@@ -0,0 +1,214 @@
+package biojavaExtensions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.biojava.bio.seq.io.ParseException;
+
+/**
+ * Low level byte-at-a-time scanner for NEXUS files, for code which needs to move through a
+ * file faster than Biojava's NexusFileFormat can (e.g. without building any objects for
+ * parts of the file it isn't interested in.) Knows about [comments] (which may nest) and
+ * 'quoted tokens', and keeps track of the byte offset in the file.
+ *
+ * Works on bytes rather than chars: every character with NEXUS meaning is ASCII, so this
+ * is safe for UTF-8 files. Text which is kept is collected as bytes and decoded at the end.
+ *
+ * @author woodhams
+ *
+ */
+class NexusScanner implements Closeable {
+
+	private static final int BUFFER_SIZE = 65536;
+
+	private InputStream in;
+	private byte[] buffer;
+	private int bufferPos;
+	private int bufferLen;
+	private long position; // file offset of the next byte to be read.
+
+	NexusScanner(InputStream in) {
+		this(in,0L);
+	}
+
+	/**
+	 * @param in
+	 * @param startPosition - the file offset 'in' is positioned at.
+	 */
+	NexusScanner(InputStream in, long startPosition) {
+		this.in = in;
+		buffer = new byte[BUFFER_SIZE];
+		bufferPos = 0;
+		bufferLen = 0;
+		position = startPosition;
+	}
+
+	/**
+	 * @return file offset of the next byte to be read.
+	 */
+	long position() {
+		return position;
+	}
+
+	int peek() throws IOException {
+		if (bufferPos == bufferLen && !fill()) return -1;
+		return buffer[bufferPos] & 0xff;
+	}
+
+	int read() throws IOException {
+		if (bufferPos == bufferLen && !fill()) return -1;
+		position++;
+		return buffer[bufferPos++] & 0xff;
+	}
+
+	private boolean fill() throws IOException {
+		int n = in.read(buffer);
+		if (n <= 0) return false;
+		bufferPos = 0;
+		bufferLen = n;
+		return true;
+	}
+
+	static boolean isWhitespace(int c) {
+		return c==' ' || c=='\t' || c=='\n' || c=='\r' || c=='\f';
+	}
+
+	/**
+	 * Characters which end an unquoted word (in addition to whitespace).
+	 */
+	static boolean isWordDelimiter(int c) {
+		return c==';' || c=='=' || c=='[' || c==',';
+	}
+
+	/**
+	 * Skips whitespace only.
+	 * @return false if end of file reached.
+	 */
+	boolean skipWhitespace() throws IOException {
+		int c;
+		while ((c=peek()) >= 0 && isWhitespace(c)) read();
+		return c >= 0;
+	}
+
+	/**
+	 * Call after the opening '[' has been read. Skips to the matching ']', copying the
+	 * text in between into 'text' (unless 'text' is null). Nested comments are copied
+	 * complete with their brackets.
+	 */
+	void skipComment(ByteArrayOutputStream text) throws IOException, ParseException {
+		int depth = 1;
+		int c;
+		while ((c=read()) >= 0) {
+			if (c == '[') {
+				depth++;
+			} else if (c == ']') {
+				depth--;
+				if (depth == 0) return;
+			}
+			if (text != null) text.write(c);
+		}
+		throw new ParseException("Unterminated comment at end of file");
+	}
+
+	/**
+	 * Call after the opening quote has been read. Skips to the closing quote (a doubled
+	 * quote is an escaped quote, not a closing one). If 'out' is not null, the token
+	 * including its quotes is copied to it.
+	 */
+	void skipQuoted(ByteArrayOutputStream out) throws IOException, ParseException {
+		if (out != null) out.write('\'');
+		int c;
+		while ((c=read()) >= 0) {
+			if (out != null) out.write(c);
+			if (c == '\'') {
+				if (peek() == '\'') {
+					read();
+					if (out != null) out.write('\'');
+				} else {
+					return;
+				}
+			}
+		}
+		throw new ParseException("Unterminated quoted token at end of file");
+	}
+
+	/**
+	 * Skips whitespace and comments. The text of each comment is appended to 'comments'
+	 * (one entry per comment) unless 'comments' is null.
+	 * @return false if end of file reached.
+	 */
+	boolean skipWhitespaceAndComments(List<String> comments, ByteArrayOutputStream scratch)
+			throws IOException, ParseException {
+		while (skipWhitespace()) {
+			if (peek() != '[') return true;
+			read();
+			if (comments == null) {
+				skipComment(null);
+			} else {
+				scratch.reset();
+				skipComment(scratch);
+				comments.add(scratch.toString("UTF-8"));
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads one word (after skipping leading whitespace and comments). A quoted word is
+	 * returned without its quotes. Returns null at end of file. If the next character is
+	 * a delimiter (e.g. ';') an empty string is returned and the delimiter is not consumed.
+	 */
+	String readWord(ByteArrayOutputStream scratch) throws IOException, ParseException {
+		if (!skipWhitespaceAndComments(null,scratch)) return null;
+		scratch.reset();
+		if (peek() == '\'') {
+			read();
+			int c;
+			while ((c=read()) >= 0) {
+				if (c == '\'') {
+					if (peek() != '\'') break;
+					read();
+				}
+				scratch.write(c);
+			}
+		} else {
+			int c;
+			while ((c=peek()) >= 0 && !isWhitespace(c) && !isWordDelimiter(c)) {
+				scratch.write(read());
+			}
+		}
+		return scratch.toString("UTF-8");
+	}
+
+	/**
+	 * Reads up to and including the next ';' which is not in a comment or quoted token.
+	 * Everything before the ';' is copied verbatim to 'out' unless 'out' is null, so
+	 * skipping a statement builds nothing.
+	 * @return false if end of file reached before a ';'
+	 */
+	boolean skipStatement(ByteArrayOutputStream out) throws IOException, ParseException {
+		int c;
+		while ((c=read()) >= 0) {
+			if (c == ';') {
+				return true;
+			} else if (c == '\'') {
+				skipQuoted(out);
+			} else if (c == '[') {
+				if (out != null) out.write('[');
+				skipComment(out);
+				if (out != null) out.write(']');
+			} else if (out != null) {
+				out.write(c);
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -1,7 +1,14 @@
 package biojavaExtensions;
 
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Iterator;
 
@@ -12,6 +19,8 @@ import org.biojavax.bio.phylo.io.nexus.NexusBlock;
 import org.biojavax.bio.phylo.io.nexus.NexusBlockBuilder;
 import org.biojavax.bio.phylo.io.nexus.NexusComment;
 import org.biojavax.bio.phylo.io.nexus.NexusFile;
+import org.biojavax.bio.phylo.io.nexus.NexusFileFormat;
+import org.biojavax.bio.phylo.io.nexus.NexusObject;
 import org.biojavax.bio.phylo.io.nexus.TaxaBlock;
 import org.biojavax.bio.phylo.io.nexus.TaxaBlockBuilder;
 import org.biojavax.bio.phylo.io.nexus.TreesBlock;
@@ -21,7 +30,37 @@ public class NexusUtils {
 		return(makeTreesBlock(trees,perTreeComments,blockComment,"T")); // "T" for "tree"
 	}
 	public static TreesBlock makeTreesBlock(String[] trees, String[] perTreeComments, String blockComment, String treePrefix) {
+		return(makeTreesBlock(trees,perTreeComments,blockComment,treePrefix,false,false));
+	}
+	/**
+	 * @param trees
+	 * @param perTreeComments - may be null
+	 * @param blockComment - may be null
+	 * @param treePrefix
+	 * @param translateTaxa - replace taxon labels by numbers and write a TRANSLATE table.
+	 * @param internTrees - store each distinct tree only once.
+	 * @return
+	 */
+	public static TreesBlock makeTreesBlock(String[] trees, String[] perTreeComments, String blockComment, String treePrefix, 
+			boolean translateTaxa, boolean internTrees) {
 		ExtTreesBlockBuilder builder = new ExtTreesBlockBuilder();
+		builder.setTranslateTaxa(translateTaxa);
+		builder.setInternTrees(internTrees);
+		return buildTreesBlock(builder,trees,perTreeComments,blockComment,treePrefix);
+	}
+	/**
+	 * As above, but taxa are translated to numbers from 'taxa' (see ExtTreesBlockBuilder.setTaxonRegistry),
+	 * which has any taxa new to it registered.
+	 * @param taxa - may be null, for no translation.
+	 */
+	public static TreesBlock makeTreesBlock(String[] trees, String[] perTreeComments, String blockComment, String treePrefix, 
+			TaxonRegistry taxa, boolean internTrees) {
+		ExtTreesBlockBuilder builder = new ExtTreesBlockBuilder();
+		builder.setTaxonRegistry(taxa);
+		builder.setInternTrees(internTrees);
+		return buildTreesBlock(builder,trees,perTreeComments,blockComment,treePrefix);
+	}
+	private static TreesBlock buildTreesBlock(ExtTreesBlockBuilder builder, String[] trees, String[] perTreeComments, String blockComment, String treePrefix) {
 		builder.startBlock("trees");
 		addComment(builder,blockComment);
 		
@@ -29,8 +68,7 @@ public class NexusUtils {
 		if (perTreeComments!=null && perTreeComments.length!=nTrees) 
 			throw new IllegalArgumentException ("Trees and tree comments have different lengths");
 		
-		// e.g. format = "T%2d" for 11 <= nTrees <= 100.
-		String format = (nTrees<=1) ? treePrefix+"%d" : treePrefix+"%0"+Integer.toString((int)Math.floor(Math.log10(nTrees-1))+1)+"d";
+		String format = treeLabelFormat(treePrefix, nTrees);
 		for (int i=0; i<nTrees; i++) {
 			if (perTreeComments!=null) addComment(builder,perTreeComments[i]);
 			TreesBlock.NewickTreeString newickTree = new TreesBlock.NewickTreeString();
@@ -44,7 +82,19 @@ public class NexusUtils {
 	}
 	
 	/**
-	 * NOTE: Will sort the argument passed to it. Pass a copy if you don't want this.
+	 * Format string for tree labels, zero padded so that labels sort in tree order.
+	 * e.g. format = "T%02d" for 11 <= nTrees <= 100.
+	 * @param treePrefix
+	 * @param nTrees
+	 * @return
+	 */
+	public static String treeLabelFormat(String treePrefix, int nTrees) {
+		return (nTrees<=1) ? treePrefix+"%d" : treePrefix+"%0"+Integer.toString((int)Math.floor(Math.log10(nTrees-1))+1)+"d";
+	}
+	
+	/**
+	 * NOTE: Will sort the argument passed to it. Pass a copy if you don't want this,
+	 * or use makeTaxaBlock(TaxonRegistry.sorted(taxa)).
 	 * @param taxa
 	 * @return
 	 */
@@ -63,8 +113,36 @@ public class NexusUtils {
 		return (TaxaBlock)builder.getNexusBlock();
 	}
 	
+	/**
+	 * Taxa in ID order, so a taxon's position in the block is its ID+1. 
+	 * @param taxa
+	 * @return
+	 */
+	public static TaxaBlock makeTaxaBlock(TaxonRegistry taxa) {
+		TaxaBlockBuilder builder = new TaxaBlockBuilder();
+		builder.startBlock("taxa");
+		builder.setDimensionsNTax(taxa.size());
+		try {
+			for (String taxon : taxa.getLabelList()) builder.addTaxLabel(taxon);
+		} catch (ParseException e) {
+			e.printStackTrace();
+			throw new RuntimeException("Can't happen");
+		}
+		builder.endBlock();
+		return (TaxaBlock)builder.getNexusBlock();
+	}
+	
 	public static DistancesBlock makeDistancesBlock(String[] taxa, double[][] distances) {
-		int n = taxa.length;
+		return makeDistancesBlock(new TaxonRegistry(taxa), distances);
+	}
+	
+	/**
+	 * @param taxa
+	 * @param distances - indexed by taxon ID
+	 * @return
+	 */
+	public static DistancesBlock makeDistancesBlock(TaxonRegistry taxa, double[][] distances) {
+		int n = taxa.size();
 		boolean goodDimensions=(distances.length==n);
 		for (int i=0; i<n; i++) {
 			goodDimensions = goodDimensions && (distances[i].length==n);
@@ -78,7 +156,7 @@ public class NexusUtils {
 		builder.setDimensionsNTax(n);
 		builder.setTriangle("both");
 		for (int row=0; row<n; row++) {
-			String taxon = taxa[row];
+			String taxon = taxa.getLabel(row);
 			builder.addMatrixEntry(taxon);
 			for (int col=0; col<n; col++) {
 				String str = String.format("%.3f",distances[row][col]);
@@ -116,6 +194,21 @@ public class NexusUtils {
 		}
 	}
 	
+	/**
+	 * Returns the token, quoted if it contains whitespace or NEXUS punctuation
+	 * (with embedded quotes doubled), for writing without going through NexusBlock.writeToken.
+	 * @param token
+	 * @return
+	 */
+	public static String quoteToken(String token) {
+		boolean needsQuotes = token.length()==0;
+		for (int i=0; i<token.length() && !needsQuotes; i++) {
+			char c = token.charAt(i);
+			needsQuotes = Character.isWhitespace(c) || "()[]{}/\\,;:=*'\"`<>".indexOf(c) >= 0;
+		}
+		return needsQuotes ? "'" + token.replace("'", "''") + "'" : token;
+	}
+	
 	/*
 	 * What NexusComment.toString() should do but doesn't
 	 */
@@ -130,9 +223,40 @@ public class NexusUtils {
 		return sw.toString();
 	}
 	
+	/**
+	 * As NexusFileFormat.writeFile, except that RawBlocks are copied straight from their
+	 * source file to the output file (FileChannel.transferTo), so are reproduced byte for byte
+	 * and never pass through a Writer. Output is UTF-8.
+	 * @param file
+	 * @param nexusFile
+	 * @throws IOException
+	 */
+	public static void writeFile(File file, NexusFile nexusFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), 
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1));
+			writer.write("#NEXUS");
+			writer.write(NexusFileFormat.NEW_LINE);
+			Iterator<?> iter = nexusFile.objectIterator();
+			while (iter.hasNext()) {
+				NexusObject object = (NexusObject)iter.next();
+				if (object instanceof RawBlock) {
+					writer.flush();
+					((RawBlock)object).transferTo(channel);
+					writer.write(NexusFileFormat.NEW_LINE); // as RawBlock.writeObject
+				} else {
+					object.writeObject(writer);
+				}
+				writer.write(NexusFileFormat.NEW_LINE);
+			}
+			writer.flush();
+		}
+	}
+	
 	/**
 	 * Returns the first block of the given name, or null if no such block exists.
 	 * Block name is not case sensitive.
+	 * This scans the whole file: for repeated lookups, use a NexusFileIndex.
 	 * 
 	 * @param nexusFile
 	 * @param blockName
@@ -141,11 +265,11 @@ public class NexusUtils {
 	public static NexusBlock getBlockByName(NexusFile nexusFile, String blockName) {
 		@SuppressWarnings("unchecked")
 		Iterator<NexusBlock> iter = (Iterator<NexusBlock>)nexusFile.blockIterator();
-		GenericBlock block = null;
+		NexusBlock block = null;
 		while (block == null && iter.hasNext()) {
 			NexusBlock nextBlock = iter.next();
 			if (nextBlock.getBlockName().equalsIgnoreCase(blockName)) {
-				block = (GenericBlock)nextBlock;
+				block = nextBlock;
 			}
 		}
 		return block;
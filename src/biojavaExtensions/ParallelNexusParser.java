@@ -0,0 +1,189 @@
+package biojavaExtensions;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.biojava.bio.seq.io.ParseException;
+import org.biojavax.bio.phylo.io.nexus.NexusBlock;
+import org.biojavax.bio.phylo.io.nexus.NexusFile;
+import org.biojavax.bio.phylo.io.nexus.NexusFileBuilder;
+import org.biojavax.bio.phylo.io.nexus.NexusFileFormat;
+
+/**
+ * Parses the blocks of a single NEXUS file in parallel.
+ * 
+ * A quick scan (NexusBlockScanner) finds each block's byte range, then each block is
+ * parsed on its own by a NexusFileBuilder made by the BuilderFactory, which decides which
+ * parser each block gets (see NexusBatchParser.genericBlocks.) The blocks, and any 
+ * comments between them, are put into the NexusFile in their original order.
+ * 
+ * Worthwhile for files with several large blocks; a file which is one big block gains nothing.
+ * 
+ * Blocks named in setPassthroughBlocks are not parsed at all, but become RawBlocks which
+ * copy their bytes from the file when written.
+ * 
+ * Selective parsing: after setSelectedBlocks, only the selected blocks are parsed. The scan
+ * which finds block boundaries does not tokenize blocks, so skipping a large unwanted block
+ * costs a read through its bytes and nothing more.
+ * 
+ * @author woodhams
+ *
+ */
+public class ParallelNexusParser implements Closeable {
+	
+	private static final byte[] HEADER = ("#NEXUS"+NexusFileFormat.NEW_LINE).getBytes(StandardCharsets.US_ASCII);
+	
+	private NexusBatchParser.BuilderFactory factory;
+	private ExecutorService executor;
+	private boolean ownExecutor; // if true, we shut it down on close()
+	private Set<String> passthroughBlocks; // upper case block names
+	private Set<String> selectedBlocks; // upper case block names. null means all blocks
+	private boolean keepUnselectedBlocks;
+	
+	public ParallelNexusParser(NexusBatchParser.BuilderFactory factory) {
+		this(factory, new ForkJoinPool(Runtime.getRuntime().availableProcessors()));
+		ownExecutor = true;
+	}
+	
+	/**
+	 * @param factory
+	 * @param executor - will not be shut down by close().
+	 */
+	public ParallelNexusParser(NexusBatchParser.BuilderFactory factory, ExecutorService executor) {
+		this.factory = factory;
+		this.executor = executor;
+		ownExecutor = false;
+		passthroughBlocks = new HashSet<String>();
+		selectedBlocks = null;
+		keepUnselectedBlocks = false;
+	}
+	
+	/**
+	 * Blocks with these names (not case sensitive) will be RawBlocks instead of being parsed.
+	 */
+	public void setPassthroughBlocks(String... blockNames) {
+		passthroughBlocks.clear();
+		for (String blockName : blockNames) passthroughBlocks.add(blockName.toUpperCase());
+	}
+	
+	/**
+	 * Parse only blocks with these names (not case sensitive.) Other blocks are left out of
+	 * the NexusFile or, if keepOthers is true, put in it as RawBlocks. 
+	 * (Passthrough blocks are RawBlocks whether selected or not.)
+	 * With no block names, all blocks are parsed, which is the default.
+	 */
+	public void setSelectedBlocks(boolean keepOthers, String... blockNames) {
+		keepUnselectedBlocks = keepOthers;
+		if (blockNames.length == 0) {
+			selectedBlocks = null;
+		} else {
+			selectedBlocks = new HashSet<String>();
+			for (String blockName : blockNames) selectedBlocks.add(blockName.toUpperCase());
+		}
+	}
+	
+	public NexusFile parse(File file) throws IOException, ParseException {
+		List<NexusBlockScanner.BlockSpan> spans = NexusBlockScanner.scan(file);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			List<Future<NexusBlock>> futures = new ArrayList<Future<NexusBlock>>();
+			try {
+				for (final NexusBlockScanner.BlockSpan span : spans) {
+					if (!isParsed(span)) {
+						futures.add(null);
+					} else {
+						final InputStream in = new FileRangeInputStream(channel, span.getStart(), span.getEnd());
+						futures.add(executor.submit(new Callable<NexusBlock>() {
+							public NexusBlock call() throws IOException, ParseException {
+								return parseBlock(in);
+							}
+						}));
+					}
+				}
+				
+				NexusFile nexusFile = new NexusFile();
+				Iterator<Future<NexusBlock>> futureIterator = futures.iterator();
+				for (NexusBlockScanner.BlockSpan span : spans) {
+					Future<NexusBlock> future = futureIterator.next();
+					if (span.isComment()) {
+						nexusFile.addObject(NexusUtils.newNexusComment(span.getCommentText()));
+					} else if (isParsed(span)) {
+						nexusFile.addObject(getResult(future, span));
+					} else if (isRaw(span)) {
+						nexusFile.addObject(new RawBlock(span, file));
+					}
+				}
+				return nexusFile;
+			} finally {
+				// Normally all done. If a block failed (or submitting failed), stop the others
+				// before the channel their FileRangeInputStreams read from is closed: queued
+				// tasks never start. One already running may still fail on the closed channel
+				// (or ClosedByInterruptException), but nothing waits for its result.
+				for (Future<NexusBlock> future : futures) {
+					if (future != null) future.cancel(true);
+				}
+			}
+		}
+	}
+	
+	private boolean isParsed(NexusBlockScanner.BlockSpan span) {
+		if (span.isComment()) return false;
+		String name = span.getBlockName().toUpperCase();
+		return !passthroughBlocks.contains(name) && (selectedBlocks == null || selectedBlocks.contains(name));
+	}
+	
+	/*
+	 * For a block which is not parsed: do we keep it as a RawBlock, or drop it?
+	 */
+	private boolean isRaw(NexusBlockScanner.BlockSpan span) {
+		return keepUnselectedBlocks || passthroughBlocks.contains(span.getBlockName().toUpperCase());
+	}
+	
+	/*
+	 * Parse a single block, by making it look like a NEXUS file containing only that block.
+	 * A fresh builder for each block, as block parsers are stateful.
+	 */
+	private NexusBlock parseBlock(InputStream blockStream) throws IOException, ParseException {
+		NexusFileBuilder builder = factory.newBuilder();
+		NexusFileFormat.parseInputStream(builder, new SequenceInputStream(new ByteArrayInputStream(HEADER), blockStream));
+		Iterator<?> blocks = builder.getNexusFile().blockIterator();
+		if (!blocks.hasNext()) throw new ParseException("Block parsed to nothing");
+		return (NexusBlock)blocks.next();
+	}
+	
+	private static NexusBlock getResult(Future<NexusBlock> future, NexusBlockScanner.BlockSpan span) 
+			throws IOException, ParseException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while parsing block "+span.getBlockName(), e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof ParseException) throw (ParseException)cause;
+			throw new RuntimeException("Parsing block "+span.getBlockName()+" failed", cause);
+		}
+	}
+	
+	@Override
+	public void close() {
+		if (ownExecutor) executor.shutdown();
+	}
+}
@@ -0,0 +1,210 @@
+package biojavaExtensions;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects per block statistics from parsers (see ParseMetricsListener): characters and
+ * tokens passed to the parser, fields, comments and trees built, wall time and (where the
+ * JVM supports it) bytes allocated by the parsing thread. Each block is also published as
+ * a JFR event (NexusBlockParseEvent, "biojavaExtensions.NexusBlockParse") when a flight
+ * recording with that event enabled is running.
+ *
+ * One ParseMetrics may be shared by parsers on several threads (e.g. via
+ * NexusBatchParser.genericBlocks): counts for blocks in progress are kept per thread.
+ *
+ * Which counts are available depends on the parser: tokens are counted by GenericBlockParser
+ * and UseableUnknownBlockParser but not by Biojava's TREES block parser, for example.
+ *
+ * @author woodhams
+ *
+ */
+public class ParseMetrics implements ParseMetricsListener {
+
+	/**
+	 * Statistics for one parsed block.
+	 */
+	public static class BlockStats {
+		private String blockName;
+		private long characters;
+		private long tokens;
+		private long fields;
+		private long comments;
+		private long trees;
+		private long nanos;
+		private long allocatedBytes;
+
+		private BlockStats(String blockName) {
+			this.blockName = blockName;
+		}
+
+		public String getBlockName() { return blockName; }
+		public long getCharacters() { return characters; }
+		public long getTokens() { return tokens; }
+		public long getFields() { return fields; }
+		public long getComments() { return comments; }
+		public long getTrees() { return trees; }
+		public long getNanos() { return nanos; }
+		public long getAllocatedBytes() { return allocatedBytes; } // -1 if not available
+
+		@Override
+		public String toString() {
+			return blockName+": "+characters+" chars, "+tokens+" tokens, "+fields+" fields, "+comments+" comments, "
+					+trees+" trees, "+(nanos/1000000.0)+" ms"+(allocatedBytes>=0 ? ", "+allocatedBytes+" bytes allocated" : "");
+		}
+	}
+
+	/**
+	 * Statistics for all blocks completed when the snapshot was taken.
+	 */
+	public static class Snapshot {
+		private List<BlockStats> blocks;
+		private BlockStats totals;
+
+		private Snapshot(List<BlockStats> blocks) {
+			this.blocks = Collections.unmodifiableList(blocks);
+			totals = new BlockStats(null);
+			totals.allocatedBytes = blocks.isEmpty() ? -1 : 0;
+			for (BlockStats block : blocks) {
+				totals.characters += block.characters;
+				totals.tokens += block.tokens;
+				totals.fields += block.fields;
+				totals.comments += block.comments;
+				totals.trees += block.trees;
+				totals.nanos += block.nanos;
+				if (block.allocatedBytes < 0 || totals.allocatedBytes < 0) {
+					totals.allocatedBytes = -1;
+				} else {
+					totals.allocatedBytes += block.allocatedBytes;
+				}
+			}
+		}
+
+		/**
+		 * In the order the blocks were finished.
+		 */
+		public List<BlockStats> getBlocks() { return blocks; }
+		/**
+		 * Sums over all blocks. (Block name is null.)
+		 */
+		public BlockStats getTotals() { return totals; }
+	}
+
+	/*
+	 * A block in progress on one thread.
+	 */
+	private static class Current {
+		private BlockStats stats;
+		private long startNanos;
+		private long startAllocated;
+		private NexusBlockParseEvent event;
+	}
+
+	private static final com.sun.management.ThreadMXBean THREAD_BEAN = threadBean();
+
+	private ThreadLocal<Current> current = new ThreadLocal<Current>() {
+		@Override
+		protected Current initialValue() {
+			return new Current();
+		}
+	};
+	private List<BlockStats> finished = new ArrayList<BlockStats>();
+
+	private static com.sun.management.ThreadMXBean threadBean() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+		com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+		if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()) return null;
+		return sunBean;
+	}
+
+	private static long allocatedBytes() {
+		return (THREAD_BEAN == null) ? -1 : THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	@Override
+	public void blockStarted(String blockName) {
+		Current block = current.get();
+		block.stats = new BlockStats(blockName);
+		block.event = new NexusBlockParseEvent();
+		block.event.begin();
+		block.startAllocated = allocatedBytes();
+		block.startNanos = System.nanoTime();
+	}
+
+	@Override
+	public void blockEnded(String blockName) {
+		long nanos = System.nanoTime();
+		long allocated = allocatedBytes();
+		Current block = current.get();
+		BlockStats stats = block.stats;
+		if (stats == null) return; // end without start: nothing to report
+		stats.nanos = nanos - block.startNanos;
+		stats.allocatedBytes = (allocated < 0 || block.startAllocated < 0) ? -1 : allocated - block.startAllocated;
+
+		NexusBlockParseEvent event = block.event;
+		event.end();
+		if (event.shouldCommit()) {
+			event.blockName = stats.blockName;
+			event.characters = stats.characters;
+			event.tokens = stats.tokens;
+			event.fields = stats.fields;
+			event.comments = stats.comments;
+			event.trees = stats.trees;
+			event.allocated = stats.allocatedBytes;
+			event.commit();
+		}
+		block.stats = null;
+		block.event = null;
+		synchronized (finished) {
+			finished.add(stats);
+		}
+	}
+
+	@Override
+	public void token(int length) {
+		BlockStats stats = current.get().stats;
+		if (stats != null) {
+			stats.tokens++;
+			stats.characters += length;
+		}
+	}
+
+	@Override
+	public void field() {
+		BlockStats stats = current.get().stats;
+		if (stats != null) stats.fields++;
+	}
+
+	@Override
+	public void comment() {
+		BlockStats stats = current.get().stats;
+		if (stats != null) stats.comments++;
+	}
+
+	@Override
+	public void tree() {
+		BlockStats stats = current.get().stats;
+		if (stats != null) stats.trees++;
+	}
+
+	/**
+	 * @return statistics of the blocks finished so far.
+	 */
+	public Snapshot getSnapshot() {
+		synchronized (finished) {
+			return new Snapshot(new ArrayList<BlockStats>(finished));
+		}
+	}
+
+	/**
+	 * Forget finished blocks.
+	 */
+	public void reset() {
+		synchronized (finished) {
+			finished.clear();
+		}
+	}
+}
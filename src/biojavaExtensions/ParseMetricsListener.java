@@ -0,0 +1,24 @@
+package biojavaExtensions;
+
+/**
+ * Receives counts from block parsers and builders as they work (see setMetrics on
+ * GenericBlockParser, ExtTreesBlockBuilder and UseableUnknownBlockParser.) With no listener
+ * set, each reporting point costs one null check.
+ *
+ * Calls for a block come from the thread parsing it, between blockStarted and blockEnded.
+ * ParseMetrics is the standard implementation.
+ *
+ * @author woodhams
+ *
+ */
+public interface ParseMetricsListener {
+	public void blockStarted(String blockName);
+	public void blockEnded(String blockName);
+	/**
+	 * @param length - number of characters in the token
+	 */
+	public void token(int length);
+	public void field();
+	public void comment();
+	public void tree();
+}
@@ -0,0 +1,122 @@
+package biojavaExtensions;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import org.biojavax.bio.phylo.io.nexus.NexusBlock;
+import org.biojavax.bio.phylo.io.nexus.NexusFileFormat;
+
+/**
+ * A block which has not been parsed: just a reference to its byte range in the source file,
+ * from the 'B' of BEGIN to just after the ';' of END (see NexusBlockScanner.BlockSpan.)
+ * Costs the same small amount of memory however big the block is.
+ *
+ * Writing the block copies its bytes from the source file, so the source file must not
+ * be changed or deleted while the NexusFile containing this block is in use.
+ * 
+ * Only transferTo(WritableByteChannel) is guaranteed to reproduce the bytes exactly: it
+ * copies them unchanged, without them passing through the Java heap where the OS allows it.
+ * NexusUtils.writeFile uses it, so use that to write NexusFiles holding RawBlocks.
+ * 
+ * LIMITATION: writeObject(Writer), as used by NexusFileFormat.writeFile, has to turn the
+ * bytes into chars. It decodes them as UTF-8, so any byte sequence which isn't valid UTF-8
+ * (e.g. Latin-1 text in a third party block) is written as U+FFFD, i.e. changed. The exception
+ * is an OutputStreamWriter whose encoding is ISO-8859-1: then each byte is passed through
+ * as one char, which that Writer encodes back to the same byte, so the block is unchanged.
+ *
+ * @author woodhams
+ *
+ */
+public class RawBlock extends NexusBlock.Abstract {
+
+	private File file;
+	private long start;
+	private long end;
+
+	public RawBlock(String blockName, File file, long start, long end) {
+		super(blockName);
+		this.file = file;
+		this.start = start;
+		this.end = end;
+	}
+
+	RawBlock(NexusBlockScanner.BlockSpan span, File file) {
+		this(span.getBlockName(), file, span.getStart(), span.getEnd());
+	}
+
+	public File getFile() { return file; }
+	public long getStart() { return start; }
+	public long getEnd() { return end; }
+	public long getLength() { return end-start; }
+
+	/**
+	 * Writes the block exactly as it was in the source (BEGIN and END included),
+	 * followed by a newline.
+	 */
+	@Override
+	public void writeObject(final Writer writer) throws IOException {
+		writeBlockContents(writer);
+		writer.write(NexusFileFormat.NEW_LINE);
+	}
+
+	/**
+	 * For a raw block, the 'contents' are the whole block including BEGIN and END.
+	 */
+	public void writeBlockContents(final Writer writer) throws IOException {
+		try (FileChannel channel = openSource()) {
+			Reader reader = new InputStreamReader(new FileRangeInputStream(channel, start, end), charsetFor(writer));
+			char[] buffer = new char[8192];
+			int n;
+			while ((n = reader.read(buffer)) > 0) writer.write(buffer, 0, n);
+		}
+	}
+
+	/*
+	 * ISO-8859-1 maps bytes to chars one to one, so is lossless if the Writer encodes the
+	 * chars back the same way. Otherwise, UTF-8 (see class comment.)
+	 */
+	private static Charset charsetFor(Writer writer) {
+		if (writer instanceof OutputStreamWriter) {
+			String encoding = ((OutputStreamWriter)writer).getEncoding();
+			if (encoding != null && Charset.isSupported(encoding) 
+					&& Charset.forName(encoding).equals(StandardCharsets.ISO_8859_1)) {
+				return StandardCharsets.ISO_8859_1;
+			}
+		}
+		return StandardCharsets.UTF_8;
+	}
+
+	/**
+	 * Copy the block's bytes (without a trailing newline) to 'target'.
+	 * @throws IOException if 'target' accepts no bytes (e.g. a non-blocking channel which
+	 * isn't ready), or the source file has been truncated.
+	 */
+	public void transferTo(WritableByteChannel target) throws IOException {
+		try (FileChannel channel = openSource()) {
+			long position = start;
+			while (position < end) {
+				long n = channel.transferTo(position, end-position, target);
+				if (n <= 0) throw new IOException("Copy of raw block "+getBlockName()+" stalled at byte "+position+" of "+file);
+				position += n;
+			}
+		}
+	}
+
+	private FileChannel openSource() throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		if (channel.size() < end) {
+			channel.close();
+			throw new IOException("Source of raw block "+getBlockName()+" has changed: "+file);
+		}
+		return channel;
+	}
+}
@@ -0,0 +1,155 @@
+package biojavaExtensions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.biojavax.bio.phylo.io.nexus.NexusFileFormat;
+import org.biojavax.bio.phylo.io.nexus.TreesBlock;
+import org.biojavax.bio.phylo.io.nexus.TreesBlock.NewickTreeString;
+
+/**
+ * Writes a TREES block one tree at a time, in the same format as ExtTreesBlock, 
+ * without ever holding more than one tree in memory. 
+ * 
+ * The block is opened by the constructor and closed by close(). close() does not close
+ * the underlying Writer, so further blocks can follow. Writing the "#NEXUS" header (and 
+ * any blocks before this one) is up to the caller.
+ * 
+ * @author woodhams
+ *
+ */
+public class StreamingTreesWriter implements Closeable {
+	
+	private Writer writer;
+	private ExtTreesBlock formatter; // never holds any trees, only used for its formatting methods.
+	private NewickTreeString newickTree; // reused for every tree written
+	private String labelFormat;
+	private int nTrees;
+	private boolean closed;
+
+	public StreamingTreesWriter(Writer writer) throws IOException {
+		this(writer,(String)null,null);
+	}
+	
+	/**
+	 * @param writer
+	 * @param blockComment - may be null
+	 * @param translations - may be null. Must be supplied here, as the TRANSLATE command
+	 *                       has to precede the first tree.
+	 * @throws IOException
+	 */
+	public StreamingTreesWriter(Writer writer, String blockComment, Map<String,String> translations) throws IOException {
+		this(writer, translations, (blockComment == null) ? null : Collections.singletonList(blockComment));
+	}
+	
+	/**
+	 * As ExtTreesBlock.writeBlockContents, block comments are written before the TRANSLATE
+	 * command (addBlockComment can only add them after it.)
+	 * @param writer
+	 * @param translations - may be null.
+	 * @param blockComments - may be null.
+	 * @throws IOException
+	 */
+	public StreamingTreesWriter(Writer writer, Map<String,String> translations, List<String> blockComments) throws IOException {
+		this.writer = writer;
+		formatter = new ExtTreesBlock();
+		newickTree = new TreesBlock.NewickTreeString();
+		labelFormat = NexusUtils.treeLabelFormat("T", 1);
+		nTrees = 0;
+		closed = false;
+		writer.write("BEGIN " + formatter.getBlockName() + ";" + NexusFileFormat.NEW_LINE);
+		if (blockComments != null) {
+			for (String comment : blockComments) formatter.writeComment(writer, NexusUtils.newNexusComment(comment));
+		}
+		if (translations != null) formatter.writeTranslations(writer, translations);
+	}
+	
+	/**
+	 * Set the labels given to trees added without an explicit label. If the number of trees
+	 * is known in advance, this gives the same labels as NexusUtils.makeTreesBlock does.
+	 * @param treePrefix
+	 * @param expectedNTrees - used only to choose the zero padding of the label.
+	 */
+	public void setTreeLabels(String treePrefix, int expectedNTrees) {
+		labelFormat = NexusUtils.treeLabelFormat(treePrefix, expectedNTrees);
+	}
+	
+	/**
+	 * A further block comment, which must be added before any trees.
+	 * (It will follow the TRANSLATE command, if any.)
+	 */
+	public void addBlockComment(String comment) throws IOException {
+		if (nTrees > 0) throw new IllegalStateException("Block comments must precede trees");
+		formatter.writeComment(writer, NexusUtils.newNexusComment(comment));
+	}
+	
+	public void addTree(String tree) throws IOException {
+		addTree(tree,null);
+	}
+	
+	/**
+	 * Add a tree, labelled according to setTreeLabels.
+	 * @param tree - newick tree string. A terminating ';' is optional.
+	 * @param comment - may be null
+	 * @throws IOException
+	 */
+	public void addTree(String tree, String comment) throws IOException {
+		addTree(String.format(labelFormat, nTrees), tree, comment);
+	}
+	
+	public void addTree(String label, String tree, String comment) throws IOException {
+		// As in NexusUtils.makeTreesBlock, strip the terminating ';' as the block will provide one.
+		newickTree.setTreeString(tree.replace(";", ""));
+		addTree(label, newickTree, comment);
+	}
+	
+	public void addTree(String label, NewickTreeString tree, String comment) throws IOException {
+		if (closed) throw new IllegalStateException("Trees block has already been closed");
+		if (comment != null) formatter.writeComment(writer, NexusUtils.newNexusComment(comment));
+		formatter.writeTree(writer, label, tree);
+		nTrees++;
+	}
+	
+	/**
+	 * Add every tree from the iterator (which may be lazily generated, e.g. Stream.iterator()).
+	 * @param trees
+	 * @param perTreeComments - may be null. If not null, must supply one comment per tree.
+	 * @throws IOException
+	 * @throws IllegalArgumentException if there are more trees than comments, or more comments
+	 *         than trees (found only after all the trees have been written.)
+	 */
+	public void addTrees(Iterator<String> trees, Iterator<String> perTreeComments) throws IOException {
+		while (trees.hasNext()) {
+			String comment = null;
+			if (perTreeComments != null) {
+				if (!perTreeComments.hasNext()) 
+					throw new IllegalArgumentException ("Trees and tree comments have different lengths");
+				comment = perTreeComments.next();
+			}
+			addTree(trees.next(), comment);
+		}
+		if (perTreeComments != null && perTreeComments.hasNext())
+			throw new IllegalArgumentException ("Trees and tree comments have different lengths");
+	}
+	
+	public int getNTrees() {
+		return nTrees;
+	}
+
+	/**
+	 * Ends the block. Flushes, but does not close, the underlying Writer.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			writer.write("END;" + NexusFileFormat.NEW_LINE);
+			writer.flush();
+			closed = true;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package biojavaExtensions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps taxon labels to dense int IDs (0, 1, 2, ... in order of registration) and back, both
+ * in constant time. One registry can be shared by the blocks describing the same taxa:
+ * NexusUtils.makeTaxaBlock lists taxa in ID order, makeDistancesBlock indexes the matrix by
+ * ID, and ExtTreesBlockBuilder.setTaxonRegistry makes the TRANSLATE table from it (taxon
+ * with ID i has translation code i+1, i.e. its position in the TAXA block.) Code working
+ * with many taxa can then use int IDs instead of comparing and hashing labels.
+ *
+ * Not thread safe. unmodifiable() gives a read-only view.
+ *
+ * @author woodhams
+ *
+ */
+public class TaxonRegistry {
+	private Map<String,Integer> ids;
+	private List<String> labels;
+	private boolean readOnly = false;
+
+	public TaxonRegistry() {
+		ids = new HashMap<String,Integer>();
+		labels = new ArrayList<String>();
+	}
+
+	/*
+	 * A view sharing 'registry's maps.
+	 */
+	private TaxonRegistry(TaxonRegistry registry) {
+		ids = registry.ids;
+		labels = registry.labels;
+		readOnly = true;
+	}
+
+	/**
+	 * Registers 'taxa' in the order given (so taxa[i] gets ID i.) The array isn't changed.
+	 * @throws IllegalArgumentException if a label occurs twice.
+	 */
+	public TaxonRegistry(String[] taxa) {
+		ids = new HashMap<String,Integer>(2*taxa.length);
+		labels = new ArrayList<String>(taxa.length);
+		for (String taxon : taxa) {
+			if (getId(taxon) >= 0) throw new IllegalArgumentException("Duplicate taxon label '"+taxon+"'");
+			register(taxon);
+		}
+	}
+
+	/**
+	 * A registry with IDs in sorted label order (as makeTaxaBlock(String[]) orders the TAXA block),
+	 * made without changing 'taxa'.
+	 */
+	public static TaxonRegistry sorted(String[] taxa) {
+		String[] copy = taxa.clone();
+		Arrays.sort(copy);
+		return new TaxonRegistry(copy);
+	}
+
+	/**
+	 * A read-only (live) view of 'registry': register() of a new taxon, and clear(), throw
+	 * UnsupportedOperationException.
+	 */
+	public static TaxonRegistry unmodifiable(TaxonRegistry registry) {
+		return registry.readOnly ? registry : new TaxonRegistry(registry);
+	}
+
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * @return the taxon's ID, registering it first if it is new.
+	 * @throws UnsupportedOperationException if the taxon is new and this is a read-only view.
+	 */
+	public int register(String taxon) {
+		Integer id = ids.get(taxon);
+		if (id != null) return id;
+		if (readOnly) throw readOnly();
+		int newId = labels.size();
+		ids.put(taxon, newId);
+		labels.add(taxon);
+		return newId;
+	}
+
+	/**
+	 * @return the taxon's ID, or -1 if it isn't registered.
+	 */
+	public int getId(String taxon) {
+		Integer id = ids.get(taxon);
+		return (id == null) ? -1 : id;
+	}
+
+	/**
+	 * IDs of 'taxa' (-1 for any not registered.)
+	 */
+	public int[] getIds(String[] taxa) {
+		int[] result = new int[taxa.length];
+		for (int i=0; i<taxa.length; i++) result[i] = getId(taxa[i]);
+		return result;
+	}
+
+	public String getLabel(int id) {
+		return labels.get(id);
+	}
+
+	public boolean contains(String taxon) {
+		return ids.containsKey(taxon);
+	}
+
+	public int size() {
+		return labels.size();
+	}
+
+	/**
+	 * All labels, in ID order.
+	 */
+	public String[] getLabels() {
+		return labels.toArray(new String[labels.size()]);
+	}
+
+	/**
+	 * Unmodifiable (live) view of the labels, in ID order.
+	 */
+	public List<String> getLabelList() {
+		return Collections.unmodifiableList(labels);
+	}
+
+	public void clear() {
+		if (readOnly) throw readOnly();
+		ids.clear();
+		labels.clear();
+	}
+
+	private UnsupportedOperationException readOnly() {
+		return new UnsupportedOperationException("Read-only taxon registry");
+	}
+}
@@ -0,0 +1,299 @@
+package biojavaExtensions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.biojava.bio.seq.io.ParseException;
+import org.biojavax.bio.phylo.io.nexus.TreesBlock;
+import org.biojavax.bio.phylo.io.nexus.TreesBlock.NewickTreeString;
+
+/**
+ * Appends trees to the last TREES block of an existing NEXUS file, in place: the new TREE
+ * commands are written over the block's END command, and everything from the END onwards
+ * is written again after them. The cost of an append is proportional to the trees added
+ * plus whatever follows the TREES block, not to the size of the file.
+ *
+ * Tree labels continue the existing numbering: if the last tree's label is the prefix
+ * (default "T") followed by digits, as made by NexusUtils.makeTreesBlock, new trees are
+ * numbered on from it with the same zero padding. (Once the numbers outgrow the padding,
+ * labels no longer sort in tree order.) Otherwise new trees are labelled prefix+n, n counting
+ * from the number of trees already in the block. If the block has a TRANSLATE table, taxon
+ * labels in new trees which appear in the table are replaced by their translation keys.
+ *
+ * Crash safety: before the file is touched, the bytes to be overwritten are saved to a
+ * journal file (the file's name plus ".append-journal"), with a CRC32 of them, and the journal
+ * and its directory entry are synced to disk. The journal is deleted once the append has been
+ * synced (and the directory synced again.) If a journal is found when a TreesAppender is
+ * created (or by recover()) the interrupted append is undone, so each append either happens
+ * completely or not at all. A journal whose CRC doesn't match was never completely written,
+ * so the file was never touched, and the journal is just deleted.
+ * (Where directories can't be synced, e.g. on Windows, that step is skipped.)
+ *
+ * Only one TreesAppender (and nothing else) should write to a file at a time.
+ *
+ * @author woodhams
+ *
+ */
+public class TreesAppender {
+
+	private static final String JOURNAL_SUFFIX = ".append-journal";
+	private static final byte[] JOURNAL_MAGIC = {'N','X','A','J'};
+	private static final int JOURNAL_HEADER_SIZE = 28; // magic, original length, insert position, CRC32 of tail
+	private static final int COPY_BUFFER_SIZE = 1<<20;
+
+	private File file;
+	private String treePrefix;
+	private long insertPosition; // file offset of the END command
+	private long fileLength;     // as at the end of the last append
+	private int nTrees;
+	private String labelFormat;
+	private int nextLabelNumber;
+	private Map<String,String> codes; // taxon label -> translation key
+	private ExtTreesBlock formatter;  // never holds any trees, only used for its formatting methods.
+
+	public TreesAppender(File file) throws IOException, ParseException {
+		this(file, "T");
+	}
+
+	/**
+	 * @param file
+	 * @param treePrefix - as for NexusUtils.makeTreesBlock
+	 * @throws IOException
+	 * @throws ParseException if the file has no TREES block.
+	 */
+	public TreesAppender(File file, String treePrefix) throws IOException, ParseException {
+		this.file = file;
+		this.treePrefix = treePrefix;
+		formatter = new ExtTreesBlock();
+		recover(file);
+		scan();
+	}
+
+	/*
+	 * Find the END of the last TREES block, and read the block's labels and translations.
+	 */
+	private void scan() throws IOException, ParseException {
+		NexusBlockScanner.BlockSpan treesSpan = null;
+		for (NexusBlockScanner.BlockSpan span : NexusBlockScanner.scan(file)) {
+			if (!span.isComment() && span.getBlockName().equalsIgnoreCase(TreesBlock.TREES_BLOCK)) treesSpan = span;
+		}
+		if (treesSpan == null) throw new ParseException(file+" has no TREES block");
+
+		Map<String,String> translations = new LinkedHashMap<String,String>();
+		String lastLabel = null;
+		nTrees = 0;
+		insertPosition = -1;
+		ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			fileLength = channel.size();
+			NexusScanner scanner = new NexusScanner(
+					new FileRangeInputStream(channel, treesSpan.getStart(), treesSpan.getEnd()), treesSpan.getStart());
+			scanner.skipStatement(null); // BEGIN TREES;
+			while (insertPosition < 0) {
+				if (!scanner.skipWhitespaceAndComments(null, scratch)) throw new ParseException("TREES block has no END");
+				long commandStart = scanner.position();
+				String command = scanner.readWord(scratch);
+				if (command.equalsIgnoreCase("END") || command.equalsIgnoreCase("ENDBLOCK")) {
+					insertPosition = commandStart;
+				} else if (command.equalsIgnoreCase("TRANSLATE")) {
+					TreesBlockReader.readTranslations(scanner, scratch, translations);
+				} else {
+					if (command.equalsIgnoreCase("TREE") || command.equalsIgnoreCase("UTREE")) {
+						scanner.skipWhitespaceAndComments(null, scratch);
+						if (scanner.peek() == '*') scanner.read();
+						lastLabel = scanner.readWord(scratch);
+						nTrees++;
+					}
+					scanner.skipStatement(null);
+				}
+			}
+		}
+
+		codes = new HashMap<String,String>();
+		for (Map.Entry<String,String> entry : translations.entrySet()) codes.put(entry.getValue(), entry.getKey());
+
+		labelFormat = treePrefix+"%d";
+		nextLabelNumber = nTrees;
+		if (lastLabel != null && lastLabel.length() > treePrefix.length() && lastLabel.startsWith(treePrefix)) {
+			String digits = lastLabel.substring(treePrefix.length());
+			if (digits.matches("[0-9]{1,9}")) {
+				nextLabelNumber = Integer.parseInt(digits)+1;
+				if (digits.length() > 1) labelFormat = treePrefix+"%0"+digits.length()+"d";
+			}
+		}
+	}
+
+	/**
+	 * @return number of trees in the block, including those appended.
+	 */
+	public int getNTrees() {
+		return nTrees;
+	}
+
+	public void append(List<String> trees) throws IOException {
+		append(trees.toArray(new String[trees.size()]), null);
+	}
+
+	/**
+	 * Append trees, as one all-or-nothing update of the file.
+	 * @param trees - newick tree strings. A terminating ';' is optional.
+	 * @param perTreeComments - may be null
+	 * @throws IOException
+	 */
+	public void append(String[] trees, String[] perTreeComments) throws IOException {
+		if (perTreeComments!=null && perTreeComments.length!=trees.length)
+			throw new IllegalArgumentException ("Trees and tree comments have different lengths");
+		StringWriter sw = new StringWriter();
+		NewickTreeString newickTree = new TreesBlock.NewickTreeString();
+		for (int i=0; i<trees.length; i++) {
+			if (perTreeComments != null && perTreeComments[i] != null)
+				formatter.writeComment(sw, NexusUtils.newNexusComment(perTreeComments[i]));
+			newickTree.setTreeString(NewickLabels.translate(trees[i].replace(";", ""), codes));
+			formatter.writeTree(sw, String.format(labelFormat, nextLabelNumber+i), newickTree);
+		}
+		byte[] newTrees = sw.toString().getBytes(StandardCharsets.UTF_8);
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			if (channel.size() != fileLength) throw new IOException(file+" has been changed by something else");
+			long tailLength = fileLength-insertPosition;
+			try (FileChannel journal = FileChannel.open(journalFile(file).toPath(), StandardOpenOption.CREATE, 
+					StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				writeJournal(channel, journal, tailLength);
+				// The tail is copied back from the journal, as it overlaps where it is moving to.
+				writeFully(channel, ByteBuffer.wrap(newTrees), insertPosition);
+				copy(journal, JOURNAL_HEADER_SIZE, channel, insertPosition+newTrees.length, tailLength);
+				channel.force(true);
+			}
+		}
+		deleteJournal(file);
+		insertPosition += newTrees.length;
+		fileLength += newTrees.length;
+		nTrees += trees.length;
+		nextLabelNumber += trees.length;
+	}
+
+	/*
+	 * Save the tail (insertPosition to end of file) to the journal, and make the journal durable.
+	 */
+	private void writeJournal(FileChannel channel, FileChannel journal, long tailLength) throws IOException {
+		long crc = copy(channel, insertPosition, journal, JOURNAL_HEADER_SIZE, tailLength);
+		ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+		header.put(JOURNAL_MAGIC);
+		header.putLong(fileLength);
+		header.putLong(insertPosition);
+		header.putLong(crc);
+		header.flip();
+		writeFully(journal, header, 0);
+		journal.force(true);
+		syncDirectory(file); // else the journal's directory entry may not survive a crash
+	}
+
+	/**
+	 * Undo an append which was interrupted (e.g. by a crash), if there was one.
+	 * @param file
+	 * @return true if an append was undone.
+	 * @throws IOException
+	 */
+	public static boolean recover(File file) throws IOException {
+		File journalFile = journalFile(file);
+		if (!journalFile.exists()) return false;
+		try (FileChannel journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+			boolean complete = journal.size() >= JOURNAL_HEADER_SIZE;
+			long originalLength = 0;
+			long insertPosition = 0;
+			if (complete) {
+				readFully(journal, header, 0);
+				for (int i=0; i<JOURNAL_MAGIC.length; i++) complete &= header.get(i) == JOURNAL_MAGIC[i];
+				originalLength = header.getLong(4);
+				insertPosition = header.getLong(12);
+				complete &= journal.size() == JOURNAL_HEADER_SIZE + originalLength - insertPosition;
+			}
+			// The size may have reached disk without all the data: check the tail's CRC.
+			if (complete) complete = copy(journal, JOURNAL_HEADER_SIZE, null, 0, originalLength-insertPosition) == header.getLong(20);
+			if (complete) {
+				try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+					copy(journal, JOURNAL_HEADER_SIZE, channel, insertPosition, originalLength-insertPosition);
+					channel.truncate(originalLength);
+					channel.force(true);
+				}
+			}
+			// else the journal was never finished, so the file was never touched.
+		}
+		deleteJournal(file);
+		return true;
+	}
+
+	private static File journalFile(File file) {
+		return new File(file.getPath()+JOURNAL_SUFFIX);
+	}
+
+	private static void deleteJournal(File file) throws IOException {
+		File journalFile = journalFile(file);
+		if (!journalFile.delete() && journalFile.exists()) throw new IOException("Can't delete "+journalFile);
+		syncDirectory(file);
+	}
+
+	/*
+	 * Make creation or deletion of files in file's directory durable.
+	 */
+	private static void syncDirectory(File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			return; // directories can't be opened on this platform (e.g. Windows)
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/*
+	 * Copy 'length' bytes from 'from' at fromPosition to 'to' at toPosition, in chunks (so any
+	 * length works.) 'to' may be null, just to compute the CRC.
+	 * @return CRC32 of the bytes copied.
+	 */
+	private static long copy(FileChannel from, long fromPosition, FileChannel to, long toPosition, long length) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(length, COPY_BUFFER_SIZE));
+		long done = 0;
+		while (done < length) {
+			buffer.clear();
+			buffer.limit((int)Math.min(buffer.capacity(), length-done));
+			readFully(from, buffer, fromPosition+done);
+			buffer.flip();
+			crc.update(buffer.duplicate());
+			if (to != null) writeFully(to, buffer, toPosition+done);
+			done += buffer.limit();
+		}
+		return crc.getValue();
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position+buffer.position()) < 0) throw new IOException("Unexpected end of file");
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		long offset = position - buffer.position();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, offset+buffer.position());
+		}
+	}
+}
@@ -0,0 +1,357 @@
+package biojavaExtensions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.biojava.bio.seq.io.ParseException;
+import org.biojavax.bio.phylo.io.nexus.TreesBlock;
+import org.biojavax.bio.phylo.io.nexus.TreesBlock.NewickTreeString;
+
+/**
+ * Reads the trees of the first TREES block of a NEXUS file one at a time, without
+ * building a NexusFile. Only the current tree (plus the TRANSLATE table) is held in memory,
+ * so arbitrarily large tree files can be processed in one pass.
+ *
+ * Everything in the file before the TREES block is skipped over without being parsed.
+ *
+ * Comments: a comment immediately preceding a TREE command is returned as that tree's
+ * comment (as written by ExtTreesBlock.) Comments before the first tree which are not
+ * attached to a tree are available from getBlockComments().
+ *
+ * nextTree() is the primary interface. The Iterator interface is a convenience, which
+ * wraps any exceptions in RuntimeExceptions.
+ *
+ * @author woodhams
+ *
+ */
+public class TreesBlockReader implements Iterator<TreesBlockReader.Tree>, Closeable {
+
+	/**
+	 * One TREE command from the TREES block.
+	 */
+	public static class Tree {
+		private String label;
+		private String rootType; // "&R", "&U" or null, as in NewickTreeString.
+		private boolean starred;
+		private String treeString;
+		private String comment; // null if none
+
+		Tree(String label, String rootType, boolean starred, String treeString, String comment) {
+			this.label = label;
+			this.rootType = rootType;
+			this.starred = starred;
+			this.treeString = treeString;
+			this.comment = comment;
+		}
+
+		public String getLabel() { return label; }
+		public String getRootType() { return rootType; }
+		public boolean isStarred() { return starred; }
+		public String getTreeString() { return treeString; }
+		public String getComment() { return comment; }
+
+		/**
+		 * @return TRUE for [&R], FALSE for [&U], null if the tree carried no rooting comment.
+		 */
+		public Boolean isRooted() {
+			if (rootType == null) return null;
+			return rootType.equalsIgnoreCase("&R");
+		}
+
+		public NewickTreeString toNewickTreeString() {
+			NewickTreeString newickTree = new TreesBlock.NewickTreeString();
+			newickTree.setRootType(rootType);
+			newickTree.setStarred(starred);
+			newickTree.setTreeString(treeString);
+			return newickTree;
+		}
+	}
+
+	private NexusScanner scanner;
+	private ByteArrayOutputStream scratch;     // for words and comments
+	private ByteArrayOutputStream treeBuffer;  // for the tree currently being read
+	private Map<String,String> translations;
+	private List<String> blockComments;
+	private List<String> pendingComments;
+	private boolean translate;
+	private boolean inBlock;
+	private boolean finished;
+	private int nTreesRead; // including trees skipped
+	private String currentComment; // comment of the tree about to be read
+	private Tree lookAhead; // for the Iterator interface
+
+	public TreesBlockReader(File file) throws IOException {
+		this(new FileInputStream(file));
+	}
+
+	public TreesBlockReader(InputStream in) {
+		this(in, new LinkedHashMap<String,String>(), false);
+	}
+	
+	/**
+	 * For reading from the middle of a TREES block (see TreesIndex): 'in' starts at a TREE
+	 * command (or the comment preceding it) and 'translations' is the block's TRANSLATE table.
+	 */
+	TreesBlockReader(InputStream in, Map<String,String> translations) {
+		this(in, translations, true);
+	}
+	
+	private TreesBlockReader(InputStream in, Map<String,String> translations, boolean inBlock) {
+		scanner = new NexusScanner(in);
+		scratch = new ByteArrayOutputStream();
+		treeBuffer = new ByteArrayOutputStream();
+		this.translations = translations;
+		blockComments = new ArrayList<String>();
+		pendingComments = new ArrayList<String>();
+		translate = true;
+		this.inBlock = inBlock;
+		finished = false;
+		nTreesRead = 0;
+		lookAhead = null;
+	}
+
+	/**
+	 * If true (the default) taxon labels in tree strings are replaced using the block's
+	 * TRANSLATE table. If false, tree strings are returned as they appear in the file.
+	 */
+	public void setTranslate(boolean translate) {
+		this.translate = translate;
+	}
+
+	/**
+	 * The TRANSLATE table, which is complete once the first tree has been read.
+	 */
+	public Map<String,String> getTranslations() {
+		return translations;
+	}
+
+	public List<String> getBlockComments() {
+		return blockComments;
+	}
+
+	/**
+	 * @return number of trees read or skipped so far.
+	 */
+	public int getNTreesRead() {
+		return nTreesRead;
+	}
+
+	/**
+	 * @return the next tree, or null if there are no more trees (or no TREES block.)
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public Tree nextTree() throws IOException, ParseException {
+		if (lookAhead != null) {
+			Tree tree = lookAhead;
+			lookAhead = null;
+			return tree;
+		}
+		if (!toNextTree()) return null;
+		return readTree(currentComment);
+	}
+	
+	/**
+	 * Skip the next tree without reading it into memory: the TREE command is scanned
+	 * for its terminating ';' and nothing is built.
+	 * @return false if there are no more trees.
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public boolean skipTree() throws IOException, ParseException {
+		if (lookAhead != null) {
+			lookAhead = null;
+			return true;
+		}
+		if (!toNextTree()) return false;
+		if (!scanner.skipStatement(null)) throw new ParseException("Tree has no terminating ';'");
+		return true;
+	}
+	
+	/**
+	 * Skip up to n trees, as skipTree().
+	 * @return number of trees skipped, which is less than n only if the block ran out of trees.
+	 */
+	public int skipTrees(int n) throws IOException, ParseException {
+		int nSkipped = 0;
+		while (nSkipped < n && skipTree()) nSkipped++;
+		return nSkipped;
+	}
+	
+	/*
+	 * Read up to and including the next TREE (or UTREE) word, setting currentComment.
+	 * Returns false at the end of the block.
+	 */
+	private boolean toNextTree() throws IOException, ParseException {
+		if (finished) return false;
+		if (!inBlock) {
+			inBlock = findTreesBlock();
+			if (!inBlock) {
+				finished = true;
+				return false;
+			}
+		}
+		while (true) {
+			if (!scanner.skipWhitespaceAndComments(pendingComments, scratch))
+				throw new ParseException("TREES block has no END");
+			String command = scanner.readWord(scratch);
+			if (command.equalsIgnoreCase("END") || command.equalsIgnoreCase("ENDBLOCK")) {
+				scanner.skipStatement(null);
+				storeBlockComments(pendingComments.size());
+				finished = true;
+				return false;
+			} else if (command.equalsIgnoreCase("TRANSLATE")) {
+				readTranslations();
+				storeBlockComments(pendingComments.size());
+			} else if (command.equalsIgnoreCase("TREE") || command.equalsIgnoreCase("UTREE")) {
+				currentComment = null;
+				if (pendingComments.size() > 0) {
+					storeBlockComments(pendingComments.size()-1);
+					currentComment = pendingComments.remove(0);
+				}
+				nTreesRead++;
+				return true;
+			} else {
+				// Some other command, which we ignore.
+				scanner.skipStatement(null);
+			}
+		}
+	}
+	
+	/*
+	 * Remove the first n pending comments. Before the first tree, keep them as block comments.
+	 */
+	private void storeBlockComments(int n) {
+		for (int i=0; i<n; i++) {
+			String comment = pendingComments.remove(0);
+			if (nTreesRead == 0) blockComments.add(comment);
+		}
+	}
+
+	private boolean findTreesBlock() throws IOException, ParseException {
+		return findTreesBlock(scanner, scratch);
+	}
+
+	/*
+	 * Skip to just after the "BEGIN TREES;" command. Other blocks are skipped whole, so
+	 * nothing in them can be mistaken for a BEGIN. (Also used by TreesIndex.)
+	 * @return false if there is no TREES block.
+	 */
+	static boolean findTreesBlock(NexusScanner scanner, ByteArrayOutputStream scratch) throws IOException, ParseException {
+		String word;
+		while ((word = scanner.readWord(scratch)) != null) {
+			if (word.equalsIgnoreCase("BEGIN")) {
+				String blockName = scanner.readWord(scratch);
+				if (!scanner.skipStatement(null)) return false;
+				if (TreesBlock.TREES_BLOCK.equalsIgnoreCase(blockName)) return true;
+				NexusBlockScanner.skipToEnd(scanner, scratch, blockName);
+			} else if (!word.equalsIgnoreCase("#NEXUS")) { // #NEXUS has no terminating ';'
+				if (!scanner.skipStatement(null)) return false;
+			}
+		}
+		return false;
+	}
+
+	private void readTranslations() throws IOException, ParseException {
+		readTranslations(scanner, scratch, translations);
+	}
+	
+	/*
+	 * Call after the "TRANSLATE" word has been read. Reads up to and including the ';'
+	 */
+	static void readTranslations(NexusScanner scanner, ByteArrayOutputStream scratch, Map<String,String> translations) 
+			throws IOException, ParseException {
+		while (true) {
+			String key = scanner.readWord(scratch);
+			if (key == null) throw new ParseException("TRANSLATE command has no terminating ';'");
+			if (key.length() == 0 && scanner.peek() == ';') {
+				scanner.read();
+				return;
+			}
+			String value = scanner.readWord(scratch);
+			translations.put(key, value);
+			scanner.skipWhitespaceAndComments(null, scratch);
+			int c = scanner.read();
+			if (c == ';') return;
+			if (c != ',') throw new ParseException("Expected ',' or ';' after translation of "+key);
+		}
+	}
+
+	/*
+	 * Call after the "TREE" word has been read.
+	 */
+	private Tree readTree(String comment) throws IOException, ParseException {
+		scanner.skipWhitespaceAndComments(null, scratch);
+		boolean starred = false;
+		if (scanner.peek() == '*') {
+			scanner.read();
+			starred = true;
+		}
+		String label = scanner.readWord(scratch);
+		scanner.skipWhitespaceAndComments(null, scratch);
+		if (scanner.read() != '=') throw new ParseException("Expected '=' after tree label "+label);
+
+		// A [&R] or [&U] comment before the tree gives the root type. Any other comment is part of the tree.
+		String rootType = null;
+		treeBuffer.reset();
+		scanner.skipWhitespace();
+		while (scanner.peek() == '[') {
+			scanner.read();
+			scratch.reset();
+			scanner.skipComment(scratch);
+			String text = scratch.toString("UTF-8");
+			if (rootType == null && (text.equalsIgnoreCase("&R") || text.equalsIgnoreCase("&U"))) {
+				rootType = text;
+			} else {
+				treeBuffer.write('[');
+				scratch.writeTo(treeBuffer);
+				treeBuffer.write(']');
+			}
+			scanner.skipWhitespace();
+		}
+		if (!scanner.skipStatement(treeBuffer)) throw new ParseException("Tree "+label+" has no terminating ';'");
+		String treeString = treeBuffer.toString("UTF-8").trim();
+		if (translate) treeString = NewickLabels.translate(treeString, translations);
+		return new Tree(label, rootType, starred, treeString, comment);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (lookAhead == null) {
+			try {
+				lookAhead = nextTree();
+			} catch (IOException | ParseException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return lookAhead != null;
+	}
+
+	@Override
+	public Tree next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		Tree tree = lookAhead;
+		lookAhead = null;
+		return tree;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException {
+		scanner.close();
+	}
+}
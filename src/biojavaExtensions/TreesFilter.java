@@ -0,0 +1,109 @@
+package biojavaExtensions;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.biojava.bio.seq.io.ParseException;
+import org.biojavax.bio.phylo.io.nexus.NexusFileFormat;
+
+/**
+ * Burn-in and thinning of a TREES block (e.g. MCMC samples) in one streaming pass:
+ * the first trees are discarded, then every k'th tree is kept. Discarded trees are skipped
+ * by the scanner (TreesBlockReader.skipTree) without any Strings being made of them.
+ * Kept trees are written out through StreamingTreesWriter, untranslated, with the
+ * original TRANSLATE table, labels and comments.
+ *
+ * A burn-in given as a fraction needs the number of trees, so costs an extra pass over
+ * the file, which only counts trees (see countTrees.)
+ *
+ * @author woodhams
+ *
+ */
+public class TreesFilter {
+
+	private int burnIn;
+	private double burnInFraction; // used if >= 0
+	private int thinning;
+
+	public TreesFilter() {
+		burnIn = 0;
+		burnInFraction = -1;
+		thinning = 1;
+	}
+
+	/**
+	 * Discard the first nTrees trees.
+	 */
+	public void setBurnIn(int nTrees) {
+		if (nTrees < 0) throw new IllegalArgumentException("Burn-in must not be negative");
+		burnIn = nTrees;
+		burnInFraction = -1;
+	}
+
+	/**
+	 * Discard this fraction of the trees (rounded down.)
+	 */
+	public void setBurnInFraction(double fraction) {
+		if (!(fraction >= 0 && fraction <= 1)) throw new IllegalArgumentException("Burn-in fraction must be between 0 and 1");
+		burnInFraction = fraction;
+	}
+
+	/**
+	 * Of the trees after burn-in, keep the first and every keepEvery'th one after it.
+	 */
+	public void setThinning(int keepEvery) {
+		if (keepEvery < 1) throw new IllegalArgumentException("Thinning must be at least 1");
+		thinning = keepEvery;
+	}
+
+	/**
+	 * Write a NEXUS file holding just the filtered TREES block.
+	 * @return number of trees written
+	 */
+	public int filter(File in, File out) throws IOException, ParseException {
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8), 1<<16)) {
+			writer.write("#NEXUS");
+			writer.write(NexusFileFormat.NEW_LINE);
+			return filter(in, writer);
+		}
+	}
+
+	/**
+	 * Write the filtered TREES block (only) to 'out'.
+	 * @return number of trees written
+	 */
+	public int filter(File in, Writer out) throws IOException, ParseException {
+		int nBurnIn = (burnInFraction >= 0) ? (int)(burnInFraction*countTrees(in)) : burnIn;
+		try (TreesBlockReader reader = new TreesBlockReader(in)) {
+			reader.setTranslate(false);
+			reader.skipTrees(nBurnIn);
+			// The TRANSLATE table and block comments precede the first tree, so are known
+			// once a tree has been read (or the end of the block reached.)
+			TreesBlockReader.Tree tree = reader.nextTree();
+			StreamingTreesWriter writer = new StreamingTreesWriter(out, reader.getTranslations(), reader.getBlockComments());
+			while (tree != null) {
+				writer.addTree(tree.getLabel(), tree.toNewickTreeString(), tree.getComment());
+				if (reader.skipTrees(thinning-1) < thinning-1) break;
+				tree = reader.nextTree();
+			}
+			writer.close();
+			return writer.getNTrees();
+		}
+	}
+
+	/**
+	 * Number of trees in the first TREES block, found without reading any tree into memory.
+	 */
+	public static int countTrees(File file) throws IOException, ParseException {
+		try (TreesBlockReader reader = new TreesBlockReader(file)) {
+			int n = 0;
+			while (reader.skipTree()) n++;
+			return n;
+		}
+	}
+}
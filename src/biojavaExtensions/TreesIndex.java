@@ -0,0 +1,282 @@
+package biojavaExtensions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.biojava.bio.seq.io.ParseException;
+
+/**
+ * An index of where each tree of a NEXUS file's (first) TREES block is, so that any tree
+ * or run of trees can be read with one seek, without reading the rest of the file.
+ *
+ * The index is kept in a sidecar file (the NEXUS file's name plus ".treeidx") holding, for
+ * each tree, its file offset, length and label, plus the location of the TRANSLATE command.
+ * The sidecar also records the NEXUS file's size and modification time when indexed: open()
+ * rebuilds the index if these no longer match. (If the sidecar can't be written, e.g. in a
+ * read-only directory, the index is still built and used, just not saved.)
+ *
+ * A tree's range starts at the comment immediately before its TREE command (if any), so
+ * trees read via the index have the same comments as when read by TreesBlockReader.
+ *
+ * @author woodhams
+ *
+ */
+public class TreesIndex implements Closeable {
+
+	private static final String SUFFIX = ".treeidx";
+	private static final int MAGIC = 0x4e585449; // "NXTI"
+	private static final int VERSION = 1;
+
+	private File file;
+	private long fileSize;
+	private long lastModified;
+	private long translateStart; // -1 if no TRANSLATE command
+	private long translateEnd;
+	private long[] starts;
+	private int[] lengths;
+	private String[] labels;
+	private Map<String,Integer> labelIndex;
+	private Map<String,String> translations; // read when first needed
+	private FileChannel channel;             // opened when first needed
+
+	private TreesIndex(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads the index for 'file' from its sidecar, or (re)builds it if the sidecar is missing or stale.
+	 */
+	public static TreesIndex open(File file) throws IOException, ParseException {
+		TreesIndex index = new TreesIndex(file);
+		File sidecar = sidecarFile(file);
+		if (sidecar.exists() && index.load(sidecar)) return index;
+		return build(file);
+	}
+
+	/**
+	 * Always (re)builds the index, and saves it to the sidecar file if possible.
+	 */
+	public static TreesIndex build(File file) throws IOException, ParseException {
+		TreesIndex index = new TreesIndex(file);
+		index.scan();
+		try {
+			index.save(sidecarFile(file));
+		} catch (IOException e) {
+			// Not fatal: the index works without being saved.
+		}
+		return index;
+	}
+
+	public static File sidecarFile(File file) {
+		return new File(file.getPath()+SUFFIX);
+	}
+
+	public int getNTrees() {
+		return labels.length;
+	}
+
+	public String getLabel(int treeNumber) {
+		return labels[treeNumber];
+	}
+
+	/**
+	 * @return number of the tree with this label, or -1 if there is none.
+	 */
+	public int indexOf(String label) {
+		if (labelIndex == null) {
+			labelIndex = new HashMap<String,Integer>(2*labels.length);
+			for (int i=labels.length-1; i>=0; i--) labelIndex.put(labels[i], i); // first wins with duplicates
+		}
+		Integer i = labelIndex.get(label);
+		return (i == null) ? -1 : i;
+	}
+
+	/**
+	 * @return file offset of the tree (or of the comment preceding it.)
+	 */
+	public long getOffset(int treeNumber) {
+		return starts[treeNumber];
+	}
+
+	/**
+	 * The TRANSLATE table, read from the file the first time it is needed.
+	 */
+	public Map<String,String> getTranslations() throws IOException, ParseException {
+		if (translations == null) {
+			translations = new LinkedHashMap<String,String>();
+			if (translateStart >= 0) {
+				NexusScanner scanner = new NexusScanner(new FileRangeInputStream(channel(), translateStart, translateEnd), translateStart);
+				ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+				scanner.readWord(scratch); // TRANSLATE
+				TreesBlockReader.readTranslations(scanner, scratch, translations);
+			}
+		}
+		return translations;
+	}
+
+	public TreesBlockReader.Tree getTree(int treeNumber) throws IOException, ParseException {
+		return getTrees(treeNumber, treeNumber+1).get(0);
+	}
+
+	/**
+	 * @return the tree with this label, or null if there is none.
+	 */
+	public TreesBlockReader.Tree getTree(String label) throws IOException, ParseException {
+		int i = indexOf(label);
+		return (i < 0) ? null : getTree(i);
+	}
+
+	/**
+	 * Trees numbered from (inclusive) to 'to' (exclusive), read in one sequential pass.
+	 * Taxon labels are translated, as by TreesBlockReader.
+	 */
+	public List<TreesBlockReader.Tree> getTrees(int from, int to) throws IOException, ParseException {
+		if (from < 0 || to > labels.length || from > to) throw new IndexOutOfBoundsException("Trees "+from+" to "+to);
+		List<TreesBlockReader.Tree> trees = new ArrayList<TreesBlockReader.Tree>(to-from);
+		if (from == to) return trees;
+		long end = starts[to-1] + lengths[to-1];
+		TreesBlockReader reader = new TreesBlockReader(new FileRangeInputStream(channel(), starts[from], end), getTranslations());
+		for (int i=from; i<to; i++) {
+			TreesBlockReader.Tree tree = reader.nextTree();
+			if (tree == null) throw new ParseException("Index does not match "+file+": rebuild it");
+			trees.add(tree);
+		}
+		return trees;
+	}
+
+	private FileChannel channel() throws IOException {
+		if (channel == null) channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		return channel;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) channel.close();
+		channel = null;
+	}
+
+	/*
+	 * Read through the file, recording where each tree is.
+	 */
+	private void scan() throws IOException, ParseException {
+		fileSize = file.length();
+		lastModified = file.lastModified();
+		translateStart = -1;
+		translateEnd = -1;
+		long[] treeStarts = new long[1024];
+		int[] treeLengths = new int[1024];
+		List<String> treeLabels = new ArrayList<String>();
+		ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+		try (NexusScanner scanner = new NexusScanner(new FileInputStream(file))) {
+			if (!TreesBlockReader.findTreesBlock(scanner, scratch)) throw new ParseException(file+" has no TREES block");
+			while (true) {
+				long statementStart = -1; // start of the last comment before the command
+				while (true) {
+					if (!scanner.skipWhitespace()) throw new ParseException("TREES block has no END");
+					if (scanner.peek() != '[') break;
+					statementStart = scanner.position();
+					scanner.read();
+					scanner.skipComment(null);
+				}
+				long commandStart = scanner.position();
+				String command = scanner.readWord(scratch);
+				if (command.equalsIgnoreCase("END") || command.equalsIgnoreCase("ENDBLOCK")) {
+					break;
+				} else if (command.equalsIgnoreCase("TRANSLATE")) {
+					translateStart = commandStart;
+					TreesBlockReader.readTranslations(scanner, scratch, new HashMap<String,String>());
+					translateEnd = scanner.position();
+				} else if (command.equalsIgnoreCase("TREE") || command.equalsIgnoreCase("UTREE")) {
+					long start = (statementStart >= 0) ? statementStart : commandStart;
+					scanner.skipWhitespaceAndComments(null, scratch);
+					if (scanner.peek() == '*') scanner.read();
+					treeLabels.add(scanner.readWord(scratch));
+					if (!scanner.skipStatement(null)) throw new ParseException("TREES block has no END");
+					int n = treeLabels.size()-1;
+					if (n == treeStarts.length) {
+						treeStarts = Arrays.copyOf(treeStarts, 2*n);
+						treeLengths = Arrays.copyOf(treeLengths, 2*n);
+					}
+					treeStarts[n] = start;
+					treeLengths[n] = (int)(scanner.position()-start);
+				} else {
+					scanner.skipStatement(null);
+				}
+			}
+		}
+		labels = treeLabels.toArray(new String[treeLabels.size()]);
+		starts = Arrays.copyOf(treeStarts, labels.length);
+		lengths = Arrays.copyOf(treeLengths, labels.length);
+	}
+
+	/*
+	 * Written to a temporary file then renamed, so a crash can't leave a half written index.
+	 */
+	private void save(File sidecar) throws IOException {
+		File temp = new File(sidecar.getPath()+".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1<<16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fileSize);
+			out.writeLong(lastModified);
+			out.writeLong(translateStart);
+			out.writeLong(translateEnd);
+			out.writeInt(labels.length);
+			for (int i=0; i<labels.length; i++) {
+				out.writeLong(starts[i]);
+				out.writeInt(lengths[i]);
+				byte[] label = labels[i].getBytes(StandardCharsets.UTF_8);
+				out.writeInt(label.length);
+				out.write(label);
+			}
+		}
+		Files.move(temp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/*
+	 * @return false if the sidecar is unreadable or stale.
+	 */
+	private boolean load(File sidecar) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar), 1<<16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) return false;
+			fileSize = in.readLong();
+			lastModified = in.readLong();
+			if (fileSize != file.length() || lastModified != file.lastModified()) return false;
+			translateStart = in.readLong();
+			translateEnd = in.readLong();
+			int nTrees = in.readInt();
+			starts = new long[nTrees];
+			lengths = new int[nTrees];
+			labels = new String[nTrees];
+			for (int i=0; i<nTrees; i++) {
+				starts[i] = in.readLong();
+				lengths[i] = in.readInt();
+				byte[] label = new byte[in.readInt()];
+				in.readFully(label);
+				labels[i] = new String(label, StandardCharsets.UTF_8);
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
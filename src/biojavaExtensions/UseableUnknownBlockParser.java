@@ -20,6 +20,11 @@ import org.biojavax.bio.phylo.io.nexus.NexusFileFormat;
  * (NexusFileBuilder.getBlockParser("unknown") sets the blockParser data member.) 
  * 
  * Lightly edited to eliminate causes of compiler warnings
+ * 
+ * Every token of the block is kept (as a String or NexusComment). Biojava's tokenizer doesn't
+ * give byte positions, so there is no passthrough mode here: to keep unknown blocks as
+ * RawBlocks (source byte range only, written back unchanged) parse with ParallelNexusParser
+ * (setPassthroughBlocks) or MappedNexusTokenizer (setPassthroughUnknownBlocks) instead.
  * @author woodhams
  *
  */
@@ -30,6 +35,13 @@ public class UseableUnknownBlockParser extends NexusBlockParser.Abstract {
 		super(new UnknownBlockBuilder());
 	}
 
+	/**
+	 * Report tokens, blocks and comments to 'metrics'. May be null, for no metrics (the default.)
+	 */
+	public void setMetrics(ParseMetricsListener metrics) {
+		((UnknownBlockBuilder) this.getBlockListener()).metrics = metrics;
+	}
+
 	public void resetStatus() {
 		// Ignore.
 	}
@@ -39,13 +51,16 @@ public class UseableUnknownBlockParser extends NexusBlockParser.Abstract {
 	}
 
 	public void parseToken(final String token) throws ParseException {
-		((UnknownBlockBuilder) this.getBlockListener()).getComponents().add(token);
+		UnknownBlockBuilder builder = (UnknownBlockBuilder) this.getBlockListener();
+		if (builder.metrics != null) builder.metrics.token(token.length());
+		builder.getComponents().add(token);
 	}
 
 	private static class UnknownBlockBuilder extends
 			NexusBlockBuilder.Abstract {
 
 		private UnknownBlock block;
+		private ParseMetricsListener metrics; // null unless collecting metrics
 
 		private List<Object> getComponents() {
 			return this.block.getComponents();
@@ -63,14 +78,16 @@ public class UseableUnknownBlockParser extends NexusBlockParser.Abstract {
 //		}
 
 		public void endBlock() {
-			// We don't care.
+			if (metrics != null) metrics.blockEnded(this.getBlockName());
 		}
 
 		public void addComment(NexusComment comment) {
+			if (metrics != null) metrics.comment();
 			this.getComponents().add(comment);
 		}
 
 		public NexusBlock startBlockObject() {
+			if (metrics != null) metrics.blockStarted(this.getBlockName());
 			this.block = new UnknownBlock(this.getBlockName());
 			return this.block;
 		}
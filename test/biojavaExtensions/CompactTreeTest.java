@@ -0,0 +1,92 @@
+package biojavaExtensions;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.biojava.bio.seq.io.ParseException;
+import org.biojavax.bio.phylo.io.nexus.TreesBlock.NewickTreeString;
+import org.junit.Test;
+
+public class CompactTreeTest {
+
+	private static void addTree(ExtTreesBlock block, String label, String newick) {
+		NewickTreeString tree = new NewickTreeString();
+		tree.setTreeString(newick);
+		block.addTree(label, tree);
+	}
+
+	@Test
+	public void roundTrip() throws ParseException {
+		TaxonRegistry taxa = new TaxonRegistry();
+		String newick = "((A:1,B:0.5)90:2,'C d':3,)";
+		CompactTree tree = CompactTree.parse(newick, taxa);
+		assertEquals(6, tree.getNNodes());
+		assertEquals(4, tree.getNLeaves());
+		assertEquals(newick, tree.toNewick(taxa.getLabels()));
+	}
+
+	@Test(expected = ParseException.class)
+	public void labelAfterLeafRejected() throws ParseException {
+		CompactTree.parse("((A,B),D E)", new TaxonRegistry());
+	}
+
+	@Test(expected = ParseException.class)
+	public void labelAfterFirstLeafRejected() throws ParseException {
+		CompactTree.parse("(A B,C)", new TaxonRegistry());
+	}
+
+	@Test
+	public void internalLabelAllowedAfterParenthesis() throws ParseException {
+		CompactTree tree = CompactTree.parse("((A,B)x,C)y", new TaxonRegistry());
+		assertEquals("y", tree.getNodeLabel(0));
+		assertEquals("x", tree.getNodeLabel(1));
+	}
+
+	@Test
+	public void copiesAreIndependent() throws ParseException {
+		ExtTreesBlock block = new ExtTreesBlock();
+		addTree(block, "t1", "(A:1,B:2)");
+		CompactTree tree = block.getCompactTree("t1");
+		tree.setBranchLength(1, 5);
+		assertEquals(1.0, block.getCompactTree("t1").getBranchLength(1), 0);
+		block.setCompactTree("t1", tree);
+		tree.setBranchLength(1, 7);
+		assertEquals(5.0, block.getCompactTree("t1").getBranchLength(1), 0);
+		assertEquals(5.0, block.getCompactTrees(ForkJoinPool.commonPool()).get("t1").getBranchLength(1), 0);
+	}
+
+	@Test
+	public void leafIdsInTreeOrder() throws ParseException {
+		int nTrees = 200;
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (int run=0; run<5; run++) {
+				ExtTreesBlock block = new ExtTreesBlock();
+				for (int t=0; t<nTrees; t++) {
+					addTree(block, "t"+t, "((x"+t+",y"+t+"),(shared,z"+t+"))");
+				}
+				Map<String,CompactTree> trees = block.getCompactTrees(pool);
+				assertEquals(nTrees, trees.size());
+				String[] labels = block.getTaxonRegistry().getLabels();
+				assertEquals(3*nTrees+1, labels.length);
+				assertEquals("x0", labels[0]);
+				assertEquals("y0", labels[1]);
+				assertEquals("shared", labels[2]);
+				assertEquals("z0", labels[3]);
+				for (int t=1; t<nTrees; t++) {
+					assertArrayEquals(new Object[] {"x"+t, "y"+t, "z"+t},
+							new Object[] {labels[3*t+1], labels[3*t+2], labels[3*t+3]});
+				}
+				CompactTree tree = trees.get("t7");
+				assertTrue(tree.isLeaf(2));
+				assertEquals("x7", labels[tree.getLeafId(2)]);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
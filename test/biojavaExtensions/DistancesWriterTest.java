@@ -0,0 +1,120 @@
+package biojavaExtensions;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.biojavax.bio.phylo.io.nexus.NexusFileFormat;
+import org.junit.Test;
+
+public class DistancesWriterTest {
+
+	private static final double[] HUGE = {1e300, -1e300, Double.MAX_VALUE, -Double.MAX_VALUE,
+			Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 1e16, 9.007199254740993E15};
+
+	/*
+	 * The matrix rows of a written block, each split into label and cells.
+	 */
+	private static String[][] matrixRows(String block) {
+		String matrix = block.substring(block.indexOf("MATRIX") + "MATRIX".length(), block.lastIndexOf("\t;"));
+		String[] lines = matrix.trim().split(NexusFileFormat.NEW_LINE);
+		String[][] rows = new String[lines.length][];
+		for (int i=0; i<lines.length; i++) rows[i] = lines[i].trim().split("\t");
+		return rows;
+	}
+
+	private static String write(DistancesWriter writer, String[] taxa, double[][] distances) throws IOException {
+		StringWriter out = new StringWriter();
+		writer.writeBlock(out, taxa, distances);
+		return out.toString();
+	}
+
+	/*
+	 * Every cell of the row huge, so the row's initial buffer estimate is far too small.
+	 */
+	private static double[][] hugeMatrix(int n) {
+		double[][] distances = new double[n][n];
+		for (int row=0; row<n; row++) {
+			for (int col=0; col<n; col++) distances[row][col] = HUGE[(row+col) % HUGE.length];
+		}
+		return distances;
+	}
+
+	private static void checkHuge(String block, int precision, int n) {
+		String[][] rows = matrixRows(block);
+		assertEquals(n, rows.length);
+		for (int row=0; row<n; row++) {
+			assertEquals("t"+row, rows[row][0]);
+			for (int col=0; col<n; col++) {
+				double value = HUGE[(row+col) % HUGE.length];
+				assertEquals(String.format(Locale.ROOT, "%."+precision+"f", value), rows[row][col+1]);
+			}
+		}
+	}
+
+	private static String[] taxa(int n) {
+		String[] taxa = new String[n];
+		for (int i=0; i<n; i++) taxa[i] = "t"+i;
+		return taxa;
+	}
+
+	@Test
+	public void hugeAndInfiniteValues() throws IOException {
+		int n = 20;
+		for (int precision : new int[] {0, 3, 15}) {
+			DistancesWriter writer = new DistancesWriter();
+			writer.setPrecision(precision);
+			checkHuge(write(writer, taxa(n), hugeMatrix(n)), precision, n);
+		}
+	}
+
+	@Test
+	public void hugeValuesInParallel() throws IOException {
+		int n = 50;
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			DistancesWriter writer = new DistancesWriter();
+			writer.setExecutor(executor, 7);
+			checkHuge(write(writer, taxa(n), hugeMatrix(n)), 3, n);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void hugeValuesInLowerTriangle() throws IOException {
+		int n = 10;
+		DistancesWriter writer = new DistancesWriter();
+		writer.setTriangle(DistancesWriter.Triangle.LOWER);
+		String[][] rows = matrixRows(write(writer, taxa(n), hugeMatrix(n)));
+		for (int row=0; row<n; row++) {
+			assertEquals(row+2, rows[row].length);
+			for (int col=0; col<=row; col++) {
+				assertEquals(String.format(Locale.ROOT, "%.3f", HUGE[(row+col) % HUGE.length]), rows[row][col+1]);
+			}
+		}
+	}
+
+	@Test
+	public void ordinaryValuesMatchStringFormat() throws IOException {
+		double[][] distances = {{0, 0.1234, -2.5}, {0.1234, 0, 1e-9}, {-2.5, 1e-9, 123456.0005}};
+		String[][] rows = matrixRows(write(new DistancesWriter(), taxa(3), distances));
+		for (int row=0; row<3; row++) {
+			for (int col=0; col<3; col++) {
+				assertEquals(String.format(Locale.ROOT, "%.3f", distances[row][col]), rows[row][col+1]);
+			}
+		}
+	}
+
+	@Test
+	public void missingValues() throws IOException {
+		double[][] distances = {{0, Double.NaN}, {Double.NaN, 0}};
+		String[][] rows = matrixRows(write(new DistancesWriter(), taxa(2), distances));
+		assertEquals("?", rows[0][2]);
+		assertEquals("?", rows[1][1]);
+	}
+}
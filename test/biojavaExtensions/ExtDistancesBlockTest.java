@@ -0,0 +1,91 @@
+package biojavaExtensions;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ExtDistancesBlockTest {
+
+	private static final String[] TAXA = {"A", "B", "C"};
+
+	/*
+	 * Drives the builder as DistancesBlockParser does. nTax 0: DIMENSIONS without NTAX.
+	 * rows[i] are the tokens of taxon i's row.
+	 */
+	private static ExtDistancesBlock parse(int nTax, String triangle, boolean diagonal, String[][] rows) {
+		ExtDistancesBlockBuilder builder = new ExtDistancesBlockBuilder();
+		builder.startBlock("DISTANCES");
+		if (nTax > 0) builder.setDimensionsNTax(nTax);
+		builder.setTriangle(triangle);
+		builder.setDiagonal(diagonal);
+		for (int row=0; row<rows.length; row++) {
+			builder.addMatrixEntry(TAXA[row]);
+			for (String token : rows[row]) builder.appendMatrixData(TAXA[row], token);
+		}
+		builder.endBlock();
+		return (ExtDistancesBlock)builder.getNexusBlock();
+	}
+
+	private static final String[][] LOWER = {{"0"}, {"1", "0"}, {"2", "?", "0"}};
+
+	private static void checkLower(ExtDistancesBlock block) {
+		assertEquals(3, block.getNTax());
+		assertEquals(1.0, block.getDistance("A", "B"), 0);
+		assertEquals(2.0, block.getDistance("C", "A"), 0);
+		assertEquals(Double.NaN, block.getDistance(1, 2), 0);
+		assertEquals(0.0, block.getDistance(2, 2), 0);
+	}
+
+	@Test
+	public void lowerTriangleWithNTax() {
+		checkLower(parse(3, "LOWER", true, LOWER));
+	}
+
+	@Test
+	public void lowerTriangleWithoutNTax() {
+		checkLower(parse(0, "LOWER", true, LOWER));
+	}
+
+	@Test
+	public void fullMatrixWithoutNTax() {
+		String[][] rows = {{"0", "1", "2"}, {"1", "0", "3"}, {"2", "3", "0"}};
+		ExtDistancesBlock block = parse(0, "BOTH", true, rows);
+		assertEquals(3, block.getNTax());
+		assertEquals(3.0, block.getDistance("B", "C"), 0);
+		assertEquals(2.0, block.getDistance(2, 0), 0);
+	}
+
+	@Test
+	public void upperTriangleWithoutNTaxOrDiagonal() {
+		String[][] rows = {{"1", "2"}, {"3"}, {}};
+		ExtDistancesBlock block = parse(0, "UPPER", false, rows);
+		assertEquals(3, block.getNTax());
+		assertEquals(1.0, block.getDistance("B", "A"), 0);
+		assertEquals(3.0, block.getDistance("B", "C"), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownTaxonRejected() {
+		parse(3, "LOWER", true, LOWER).getDistance("A", "Z");
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void negativeIndexRejected() {
+		parse(3, "LOWER", true, LOWER).getDistance(1, -1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void tooManyValuesInLowerRowRejected() {
+		parse(3, "LOWER", true, new String[][] {{"0"}, {"1", "0", "5"}, {"2", "?", "0"}});
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void tooManyValuesInFullRowRejected() {
+		parse(2, "BOTH", true, new String[][] {{"0", "1", "7"}, {"1", "0"}});
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void tooManyValuesWithoutNTaxRejected() {
+		parse(0, "LOWER", true, new String[][] {{"0", "4"}, {"1", "0"}});
+	}
+}
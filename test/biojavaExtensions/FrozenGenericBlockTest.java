@@ -0,0 +1,100 @@
+package biojavaExtensions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import org.biojava.bio.seq.io.ParseException;
+import org.biojavax.bio.phylo.io.nexus.NexusComment;
+import org.junit.Test;
+
+public class FrozenGenericBlockTest {
+
+	private static String contents(AbstractGenericBlock block) throws IOException {
+		StringWriter out = new StringWriter();
+		block.writeBlockContents(out);
+		return out.toString();
+	}
+
+	private static GenericBlock block(NexusComment comment) throws ParseException {
+		GenericBlock block = new GenericBlock("test", null, true);
+		block.addWhitespace("\n\t");
+		block.addField("nTax", "=", "12");
+		block.addComment(comment);
+		block.addField("Rates", "=", "0.5 1.5 2");
+		return block;
+	}
+
+	private static NexusComment comment(String text) {
+		NexusComment comment = new NexusComment();
+		comment.addCommentText(text);
+		return comment;
+	}
+
+	@Test
+	public void readsMatchMutableBlock() throws ParseException, IOException {
+		GenericBlock block = block(comment("note"));
+		FrozenGenericBlock frozen = block.freeze();
+		assertEquals(contents(block), contents(frozen));
+		assertEquals(12, frozen.getInt("NTAX"));
+		assertEquals(7, frozen.getInt("missing", 7));
+		assertEquals("0.5 1.5 2", frozen.getValueTrimmed("rates"));
+		assertEquals(3, frozen.getDoubleArray("rates").length);
+		assertTrue(frozen.hasKey("ntax"));
+		assertFalse(frozen.hasKey("other"));
+		assertEquals(4, frozen.size());
+	}
+
+	@Test
+	public void laterChangesDontAffectFrozenCopy() throws ParseException, IOException {
+		NexusComment comment = comment("note");
+		GenericBlock block = block(comment);
+		FrozenGenericBlock frozen = block.freeze();
+		String before = contents(frozen);
+		comment.addCommentText(" changed");
+		block.removeField("ntax");
+		block.addField("extra", "=", "1");
+		assertEquals(before, contents(frozen));
+	}
+
+	@Test
+	public void commentsCantBeChangedThroughFrozenBlock() throws ParseException, IOException {
+		FrozenGenericBlock frozen = block(comment("note")).freeze();
+		String before = contents(frozen);
+		NexusComment comment = frozen.getStuff(2).getComment();
+		comment.addCommentText(" changed");
+		assertNotSame(comment, frozen.getStuff(2).getComment());
+		assertEquals(before, contents(frozen));
+	}
+
+	@Test
+	public void thawGivesIndependentCopy() throws ParseException, IOException {
+		FrozenGenericBlock frozen = block(comment("note")).freeze();
+		GenericBlock thawed = frozen.thaw();
+		assertEquals(contents(frozen), contents(thawed));
+		thawed.reformatFields();
+		thawed.removeField("rates");
+		assertEquals("0.5 1.5 2", frozen.getValueTrimmed("rates"));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void frozenEntriesCantBeReformatted() throws ParseException {
+		block(comment("note")).freeze().getField("ntax").reformat();
+	}
+
+	@Test
+	public void entryStateIsFinal() throws NoSuchFieldException {
+		// Frozen entries are handed out by getStuff and getField, so only reformat() (which
+		// they refuse) may change them.
+		for (String name : new String[] {"type", "comment", "key", "separator", "frozen"}) {
+			Field field = GenericNexusStuff.class.getDeclaredField(name);
+			assertTrue(name, Modifier.isFinal(field.getModifiers()));
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package biojavaExtensions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.biojava.bio.seq.io.ParseException;
+import org.junit.Test;
+
+public class GenericBlockTest {
+
+	private static GenericBlock duplicates() throws ParseException {
+		GenericBlock block = new GenericBlock("test");
+		block.addWhitespace("\n\t");
+		block.addField("a", "=", "1");
+		block.addWhitespace("\n\t");
+		block.addField("b", "=", "2");
+		block.addWhitespace("\n\t");
+		block.addField("a", "=", "3");
+		return block;
+	}
+
+	@Test
+	public void removeFieldFindsLaterDuplicate() throws ParseException {
+		GenericBlock block = duplicates();
+		assertTrue(block.removeField("a"));
+		assertEquals("3", block.getValueTrimmed("a"));
+		assertTrue(block.removeField("a"));
+		assertFalse(block.hasKey("a"));
+		assertFalse(block.removeField("a"));
+		assertEquals("2", block.getValueTrimmed("b"));
+	}
+
+	@Test
+	public void iteratorRemovalOfLaterDuplicateKeepsFirst() throws ParseException {
+		GenericBlock block = duplicates();
+		Iterator<GenericNexusStuff> iterator = block.stuffIterator();
+		while (iterator.hasNext()) {
+			GenericNexusStuff stuff = iterator.next();
+			if (stuff.isField() && stuff.getValue().equals("3")) iterator.remove();
+		}
+		assertEquals("1", block.getValueTrimmed("a"));
+		assertTrue(block.removeField("a"));
+		assertNull(block.getField("a"));
+	}
+
+	@Test
+	public void iteratorRemovalOfFirstFindsLaterDuplicate() throws ParseException {
+		GenericBlock block = duplicates();
+		Iterator<GenericNexusStuff> iterator = block.stuffIterator();
+		while (iterator.hasNext()) {
+			GenericNexusStuff stuff = iterator.next();
+			if (stuff.isField() && stuff.getValue().equals("1")) iterator.remove();
+		}
+		assertEquals("3", block.getValueTrimmed("a"));
+	}
+}
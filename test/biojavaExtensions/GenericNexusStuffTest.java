@@ -0,0 +1,125 @@
+package biojavaExtensions;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.biojava.bio.seq.io.ParseException;
+import org.biojavax.bio.phylo.io.nexus.NexusComment;
+import org.junit.Test;
+
+public class GenericNexusStuffTest {
+
+	private static final String[] VALUES = {
+		"", " ", "   ", "\t", " \t \t ", "\n", "\n\n", " \n \n ",
+		"abc", "abc\n", "abc\n\n", "a  b", "a\tb", "a \t b", "a\t\tb\tc", "\tleading tab", "trailing tab\t",
+		"a\r\nb\r\n", "a \r\n  b", "\r\n", "line1\n  line2\n\tline3\n",
+		" a\t  b \n  c\n", "x\n \t y", "1 2 3\n4 5 6\n7 8 9", "'quoted  value'\n"
+	};
+
+	/*
+	 * The regex chain reformat() used to run, kept verbatim to compare against.
+	 */
+	private static String oldReformat(String value, boolean indentFirstLine) {
+		String temp = value.replaceAll("\t", "");
+		temp = temp.replaceAll("  +", " ");
+		temp = temp.replaceAll("\n ", "\n");
+		temp = temp.replaceAll("\n", "\n\t\t");
+		if (indentFirstLine) {temp = "\t\t"+temp;}
+		temp = temp.replace("\t\t$", "\t");
+		return temp;
+	}
+
+	/*
+	 * The old result, with its last step done as intended: a trailing double tab becomes one tab.
+	 */
+	private static String expected(String value, boolean indentFirstLine) {
+		String old = oldReformat(value, indentFirstLine);
+		return old.endsWith("\t\t") ? old.substring(0, old.length()-1) : old;
+	}
+
+	private static String show(String s) {
+		return s.replace("\t", "\\t").replace("\r", "\\r").replace("\n", "\\n");
+	}
+
+	@Test
+	public void matchesRegexChain() {
+		for (boolean indentFirstLine : new boolean[] {false, true}) {
+			for (String value : VALUES) {
+				assertEquals("value \""+show(value)+"\" indent "+indentFirstLine,
+						show(expected(value, indentFirstLine)), show(GenericNexusStuff.reformat(value, indentFirstLine)));
+			}
+		}
+	}
+
+	@Test
+	public void unchangedWhereNoTrailingDoubleTab() {
+		for (boolean indentFirstLine : new boolean[] {false, true}) {
+			for (String value : VALUES) {
+				String old = oldReformat(value, indentFirstLine);
+				if (!old.endsWith("\t\t")) assertEquals(old, GenericNexusStuff.reformat(value, indentFirstLine));
+			}
+		}
+	}
+
+	@Test
+	public void deliberateDifferences() {
+		// An empty value on its own line: was "\t\t", now one tab.
+		assertEquals("\t\t", oldReformat("", true));
+		assertEquals("\t", GenericNexusStuff.reformat("", true));
+		// A value ending in a newline: the terminating ';' is now indented by one tab, not two.
+		assertEquals("abc\n\t\t", oldReformat("abc\n", false));
+		assertEquals("abc\n\t", GenericNexusStuff.reformat("abc\n", false));
+	}
+
+	@Test
+	public void carriageReturnsKept() {
+		assertEquals("a\r\n\t\tb", GenericNexusStuff.reformat("a\r\nb", false));
+		assertEquals("a \r\n\t\tb", GenericNexusStuff.reformat("a \r\n  b", false));
+	}
+
+	@Test
+	public void tabsInsideValuesRemoved() {
+		assertEquals("ab c", GenericNexusStuff.reformat("a\tb \t c", false));
+	}
+
+	@Test
+	public void typedValuesCachedPerType() throws ParseException {
+		GenericNexusStuff field = new GenericNexusStuff("n", "=", " 42 ");
+		for (int i=0; i<3; i++) {
+			assertEquals(42, field.getIntValue());
+			assertEquals(42L, field.getLongValue());
+			assertEquals(42.0, field.getDoubleValue(), 0);
+			assertArrayEquals(new int[] {42}, field.getIntArrayValue());
+		}
+		field.getIntArrayValue()[0] = 7;
+		assertArrayEquals(new int[] {42}, field.getIntArrayValue());
+	}
+
+	@Test
+	public void reformatClearsCache() throws ParseException {
+		GenericNexusStuff field = new GenericNexusStuff("n", "=", "1\t2");
+		assertEquals(2, field.getIntArrayValue().length);
+		field.reformat();
+		assertEquals(1, field.getIntArrayValue().length);
+	}
+
+	@Test
+	public void typedGetsRejectWhitespaceEntries() {
+		GenericNexusStuff white = new GenericNexusStuff("  12  ");
+		int failures = 0;
+		try { white.getIntValue(); } catch (ParseException e) { failures++; }
+		try { white.getDoubleValue(); } catch (ParseException e) { failures++; }
+		try { white.getStringListValue(); } catch (ParseException e) { failures++; }
+		try { white.getBooleanValue(); } catch (ParseException e) { failures++; }
+		assertEquals(4, failures);
+	}
+
+	@Test
+	public void typedGetsRejectComments() {
+		GenericNexusStuff comment = new GenericNexusStuff(new NexusComment());
+		boolean thrown = false;
+		try { comment.getDoubleValue(); } catch (ParseException e) { thrown = true; }
+		assertTrue(thrown);
+	}
+}
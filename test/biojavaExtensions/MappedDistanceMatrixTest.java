@@ -0,0 +1,56 @@
+package biojavaExtensions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class MappedDistanceMatrixTest {
+
+	private static final String[] TAXA = {"A", "B", "C"};
+	private static final double[][] DISTANCES = {{0, 1, 2}, {1, 0, 3}, {2, 3, 0}};
+
+	private static File write() throws IOException {
+		File file = File.createTempFile("distances", ".bin");
+		file.deleteOnExit();
+		MappedDistanceMatrix.write(file, TAXA, DISTANCES, false);
+		return file;
+	}
+
+	@Test
+	public void readsBackDistances() throws IOException {
+		try (MappedDistanceMatrix matrix = new MappedDistanceMatrix(write())) {
+			for (int row=0; row<3; row++) {
+				for (int col=0; col<3; col++) assertEquals(DISTANCES[row][col], matrix.getDistance(row, col), 0);
+			}
+			assertEquals(3.0, matrix.getDistance("C", "B"), 0);
+		}
+	}
+
+	@Test
+	public void unknownTaxonRejected() throws IOException {
+		try (MappedDistanceMatrix matrix = new MappedDistanceMatrix(write())) {
+			matrix.getDistance("B", "Z");
+			fail("Unknown taxon accepted");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Taxon 'Z' is not in the distance matrix", e.getMessage());
+		}
+	}
+
+	@Test
+	public void indexOutOfRangeRejected() throws IOException {
+		try (MappedDistanceMatrix matrix = new MappedDistanceMatrix(write())) {
+			for (int[] cell : new int[][] {{-1, 1}, {1, -1}, {3, 0}, {0, 3}}) {
+				try {
+					matrix.getDistance(cell[0], cell[1]);
+					fail("Distance ("+cell[0]+","+cell[1]+") accepted");
+				} catch (IndexOutOfBoundsException e) {
+					// expected
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package biojavaExtensions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.biojavax.bio.phylo.io.nexus.NexusFileBuilder;
+import org.junit.Test;
+
+public class NexusBatchParserTest {
+
+	private static final List<File> FILES = Arrays.asList(new File("first.nex"), new File("second.nex"));
+
+	/*
+	 * A factory whose first builder fails with 'error' (standing in for a parse failing with it.)
+	 */
+	private static NexusBatchParser.BuilderFactory failingOnce(final Error error) {
+		final AtomicInteger calls = new AtomicInteger();
+		return new NexusBatchParser.BuilderFactory() {
+			public NexusFileBuilder newBuilder() {
+				if (calls.getAndIncrement() == 0) throw error;
+				return new NexusFileBuilder();
+			}
+		};
+	}
+
+	@Test
+	public void errorsBecomeFailedResults() {
+		for (Error error : new Error[] {new StackOverflowError(), new AssertionError("bad file")}) {
+			try (NexusBatchParser parser = new NexusBatchParser(failingOnce(error), 1)) {
+				List<NexusBatchParser.Result> results = parser.parseAll(FILES);
+				assertEquals(2, results.size());
+				int failed = 0;
+				for (NexusBatchParser.Result result : results) {
+					if (!result.succeeded()) {
+						failed++;
+						assertSame(error, result.getError());
+					}
+				}
+				assertEquals(1, failed);
+			}
+		}
+	}
+
+	@Test
+	public void virtualMachineErrorEndsNextButNotIteration() {
+		try (NexusBatchParser parser = new NexusBatchParser(failingOnce(new OutOfMemoryError("test")), 1)) {
+			Iterator<NexusBatchParser.Result> results = parser.parse(FILES);
+			int thrown = 0;
+			int returned = 0;
+			while (results.hasNext()) {
+				try {
+					results.next();
+					returned++;
+				} catch (RuntimeException e) {
+					assertTrue(e.getCause() instanceof OutOfMemoryError);
+					thrown++;
+				}
+			}
+			assertEquals(1, thrown);
+			assertEquals(1, returned);
+			assertFalse(results.hasNext());
+		} catch (OutOfMemoryError e) {
+			fail("OutOfMemoryError escaped from the worker");
+		}
+	}
+}
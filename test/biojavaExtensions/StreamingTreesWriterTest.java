@@ -0,0 +1,45 @@
+package biojavaExtensions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StreamingTreesWriterTest {
+
+	private static final List<String> TREES = Arrays.asList("(A,(B,C))", "((A,B),C)");
+
+	@Test
+	public void oneCommentPerTree() throws IOException {
+		StreamingTreesWriter writer = new StreamingTreesWriter(new StringWriter());
+		writer.addTrees(TREES.iterator(), Arrays.asList("c1", "c2").iterator());
+		assertEquals(2, writer.getNTrees());
+	}
+
+	@Test
+	public void tooFewCommentsRejected() throws IOException {
+		StreamingTreesWriter writer = new StreamingTreesWriter(new StringWriter());
+		try {
+			writer.addTrees(TREES.iterator(), Arrays.asList("c1").iterator());
+			fail("Missing comment accepted");
+		} catch (IllegalArgumentException e) {
+			assertEquals(1, writer.getNTrees());
+		}
+	}
+
+	@Test
+	public void surplusCommentsRejected() throws IOException {
+		StreamingTreesWriter writer = new StreamingTreesWriter(new StringWriter());
+		try {
+			writer.addTrees(TREES.iterator(), Arrays.asList("c1", "c2", "c3").iterator());
+			fail("Surplus comment accepted");
+		} catch (IllegalArgumentException e) {
+			assertEquals(2, writer.getNTrees());
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package biojavaExtensions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TaxonRegistryTest {
+
+	@Test
+	public void unmodifiableViewIsLive() {
+		TaxonRegistry registry = new TaxonRegistry(new String[] {"a", "b"});
+		TaxonRegistry view = TaxonRegistry.unmodifiable(registry);
+		assertTrue(view.isReadOnly());
+		assertSame(view, TaxonRegistry.unmodifiable(view));
+		assertEquals(1, view.register("b")); // already registered: allowed
+		registry.register("c");
+		assertEquals(3, view.size());
+		assertEquals("c", view.getLabel(2));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void unmodifiableViewRejectsNewTaxa() {
+		TaxonRegistry.unmodifiable(new TaxonRegistry()).register("a");
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void unmodifiableViewRejectsClear() {
+		TaxonRegistry.unmodifiable(new TaxonRegistry(new String[] {"a"})).clear();
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void distancesBlockRegistryIsReadOnly() {
+		ExtDistancesBlock block = new ExtDistancesBlock();
+		block.getTaxonRegistry().register("x");
+	}
+}
@@ -0,0 +1,37 @@
+package biojavaExtensions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.biojava.bio.seq.io.ParseException;
+import org.junit.Test;
+
+public class TreesFilterTest {
+
+	private static File nexus(String contents) throws IOException {
+		File file = File.createTempFile("trees", ".nex");
+		file.deleteOnExit();
+		Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	@Test
+	public void blockCommentsPrecedeTranslate() throws IOException, ParseException {
+		File in = nexus("#NEXUS\nBEGIN TREES;\n\t[first]\n\t[second]\n\tTRANSLATE 1 A, 2 B, 3 C;\n"
+				+ "\tTREE t1 = (1,(2,3));\n\tTREE t2 = ((1,2),3);\nEND;\n");
+		StringWriter out = new StringWriter();
+		assertEquals(2, new TreesFilter().filter(in, out));
+		String block = out.toString();
+		int first = block.indexOf("[first]");
+		int second = block.indexOf("[second]");
+		int translate = block.indexOf("TRANSLATE");
+		assertTrue(block, first >= 0 && first < second && second < translate);
+		assertTrue(block, block.indexOf("TREE t1") > translate);
+	}
+}